@@ -0,0 +1,179 @@
+import java.util.Random;
+
+/**
+ * AI4211 Project
+ * The solver's hot paths on one kind of board, for benchmarks.BoardBenchmark:
+ * placing and undoing a piece, clearing lines, copying the board and scoring
+ * it. JMH needs benchmarks in a named package, which cannot see the solver's
+ * default package, so the benchmark reaches these through method handles
+ */
+public class BoardWorkload {
+
+	/**
+	 * The seed for every random board, so runs are comparable
+	 */
+	private final static long SEED = 4211;
+
+	/**
+	 * A row with every column of a standard board filled
+	 */
+	private final static int FULL_MASK = (1 << TetrisSolver.GRID_WIDTH) - 1;
+
+	/**
+	 * The board pieces are placed on, copied and scored
+	 */
+	private final Board board;
+
+	/**
+	 * The same kind of board on top of 4 rows an upright I piece at the left
+	 * wall clears
+	 */
+	private final Board clearing;
+
+	/**
+	 * The board copied into
+	 */
+	private final Board scratch;
+
+	/**
+	 * Scores by the legacy weights, and by every feature
+	 */
+	private final Evaluator legacy, features;
+
+	/**
+	 * The number of the next placement, to vary the piece placed
+	 */
+	private int next = 0;
+
+	/**
+	 * Builds the boards of a kind
+	 * @param kind empty, half-full, ragged or hole-ridden
+	 */
+	public BoardWorkload(String kind) {
+		int[] rows = pattern(kind);
+		board = Board.of(rows);
+		clearing = Board.of(clearingPattern(rows));
+		scratch = board.copy();
+		legacy = new Evaluator(Evaluator.LEGACY_WEIGHTS, null);
+		features = new Evaluator(new int[] {-1, -1, -1, -1, -1, -1, -1, -1}, null);
+	}
+
+	/*************************************************************************
+	 *                           PUBLIC METHODS                              *
+	 *************************************************************************/
+
+	/**
+	 * Places a piece and undoes it, cycling through every piece, rotation and
+	 * position
+	 * @return the lines cleared
+	 */
+	public int placeAndUndo() {
+		int i = next++ & 0xFFFFFF;
+		int lines = board.apply(1 + i % 7, (i / 7) % 4, (i / 28) % TetrisSolver.GRID_WIDTH);
+		board.undo();
+		return lines;
+	}
+
+	/**
+	 * Places an upright I piece that clears 4 lines, and undoes it
+	 * @return the lines cleared
+	 */
+	public int clearFourLines() {
+		int lines = clearing.apply(1, 0, 0);
+		clearing.undo();
+		return lines;
+	}
+
+	/**
+	 * Copies the board into a board already big enough
+	 * @return the height of the copy
+	 */
+	public int copy() {
+		scratch.copyFrom(board);
+		return scratch.height;
+	}
+
+	/**
+	 * Scores the board by the legacy weights, from the column heights alone
+	 * @return the score
+	 */
+	public int scoreLegacy() {
+		return legacy.score(board);
+	}
+
+	/**
+	 * Scores the board by every feature
+	 * @return the score
+	 */
+	public int scoreFeatures() {
+		return features.score(board);
+	}
+
+	/*************************************************************************
+	 *                       PRIVATE HELPER METHODS                          *
+	 *************************************************************************/
+
+	/**
+	 * Returns the rows of one kind of benchmarked board. No row is ever full
+	 * @param kind the kind of board
+	 * @return the rows, from the bottom up
+	 */
+	private static int[] pattern(String kind) {
+		Random random = new Random(SEED + kind.hashCode());
+		int[] rows;
+		switch (kind) {
+			case "half-full":
+				//half of a 20 row board, each row missing one block
+				rows = new int[10];
+				for (int r = 0; r < rows.length; r++) {
+					rows[r] = FULL_MASK & ~(1 << random.nextInt(TetrisSolver.GRID_WIDTH));
+				}
+				break;
+			case "ragged":
+				//solid columns of very different heights
+				rows = new int[16];
+				int well = random.nextInt(TetrisSolver.GRID_WIDTH);
+				for (int c = 0; c < TetrisSolver.GRID_WIDTH; c++) {
+					int top = c == well ? 0 : random.nextInt(rows.length + 1);
+					for (int r = 0; r < top; r++) {
+						rows[r] |= 1 << c;
+					}
+				}
+				break;
+			case "hole-ridden":
+				//blocks scattered at random, leaving holes everywhere
+				rows = new int[16];
+				for (int r = 0; r < rows.length; r++) {
+					for (int c = 0; c < TetrisSolver.GRID_WIDTH; c++) {
+						if (random.nextInt(10) < 6)
+							rows[r] |= 1 << c;
+					}
+					if (rows[r] == FULL_MASK)
+						rows[r] &= ~(1 << random.nextInt(TetrisSolver.GRID_WIDTH));
+				}
+				break;
+			default:
+				rows = new int[0];
+		}
+		return rows;
+	}
+
+	/**
+	 * Returns the rows of a board where an upright I piece at the left wall
+	 * clears 4 lines: 4 rows missing only the first column, with a benchmarked
+	 * board on top that the clear moves down
+	 * @param above the rows of the benchmarked board
+	 * @return the rows, from the bottom up
+	 */
+	private static int[] clearingPattern(int[] above) {
+		int[] rows = new int[4 + above.length];
+		for (int r = 0; r < 4; r++) {
+			rows[r] = FULL_MASK & ~1;
+		}
+		for (int r = 0; r < above.length; r++) {
+			//keep the first column open down to the full rows
+			rows[4 + r] = above[r] & ~1;
+		}
+		return rows;
+	}
+}
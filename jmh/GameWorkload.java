@@ -0,0 +1,26 @@
+import java.io.IOException;
+
+/**
+ * AI4211 Project
+ * Whole games of seeded random pieces for benchmarks.GameBenchmark, streamed
+ * with the default settings and the moves written nowhere
+ */
+public class GameWorkload {
+
+	/**
+	 * The seed for every piece sequence, so runs are comparable
+	 */
+	private final static long SEED = 4211;
+
+	/**
+	 * Plays a whole game
+	 * @param pieces the number of pieces
+	 * @return the final height of the stack
+	 * @throws IOException never, the pieces and output are in memory
+	 */
+	public static long play(int pieces) throws IOException {
+		TetrisSolver solver = new TetrisSolver();
+		solver.stream(new RandomPieces(SEED, pieces), SolutionWriter.discard(TetrisSolver.GRID_WIDTH));
+		return solver.height();
+	}
+}
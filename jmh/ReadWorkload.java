@@ -0,0 +1,85 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * AI4211 Project
+ * Reading a text file of pieces in chunks, through a stream or a memory map,
+ * for benchmarks.ReadBenchmark. The file is written once, 256MB of random
+ * pieces in lines of 80, and read whole every time
+ */
+public class ReadWorkload {
+
+	/**
+	 * The seed for the pieces, so runs are comparable
+	 */
+	private final static long SEED = 4211;
+
+	/**
+	 * The size of the piece file read
+	 */
+	private final static long FILE_BYTES = 256L * 1024 * 1024;
+
+	/**
+	 * Whether the file is read through a memory map rather than a stream
+	 */
+	private final boolean mapped;
+
+	/**
+	 * The piece file
+	 */
+	private final Path file;
+
+	/**
+	 * The chunk the pieces are read into
+	 */
+	private final int[] chunk = new int[64 * 1024];
+
+	/**
+	 * Writes the piece file
+	 * @param reader streamed or mapped
+	 * @throws IOException if the file cannot be written
+	 */
+	public ReadWorkload(String reader) throws IOException {
+		mapped = reader.equals("mapped");
+		file = Files.createTempFile("pieces", ".txt");
+		Random random = new Random(SEED);
+		byte[] line = new byte[81];
+		line[80] = '\n';
+		try (OutputStream out = Files.newOutputStream(file)) {
+			for (long written = 0; written < FILE_BYTES; written += line.length) {
+				for (int i = 0; i < 80; i++) {
+					line[i] = (byte) ('1' + random.nextInt(7));
+				}
+				out.write(line);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the piece file
+	 * @throws IOException if the file cannot be deleted
+	 */
+	public void delete() throws IOException {
+		Files.delete(file);
+	}
+
+	/**
+	 * Reads the whole file in chunks
+	 * @return the number of pieces read plus the last one, so none are skipped
+	 * @throws IOException if the file cannot be read
+	 */
+	public long read() throws IOException {
+		long sum = 0;
+		try (PieceSource source = mapped ? new MappedPieceReader(file)
+				: new TextPieceReader(Files.newInputStream(file))) {
+			int n;
+			while ((n = source.read(chunk, 0, chunk.length)) != -1) {
+				sum += n + chunk[n-1];
+			}
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,115 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * AI4211 Project
+ * JMH benchmarks of the solver's hot paths, run by BoardWorkload: placing and
+ * undoing a piece, clearing lines, copying the board and scoring it, each on
+ * an empty, half-full, ragged and hole-ridden board.
+ *
+ * Built and run with the jmh profile, where -prof gc adds the bytes each
+ * operation allocates, which should read 0 for all of them:
+ *
+ *   mvn -P jmh package
+ *   java -jar target/benchmarks.jar BoardBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BoardBenchmark {
+
+	private final static MethodHandle CREATE = Workloads.constructor("BoardWorkload", String.class);
+	private final static MethodHandle PLACE_AND_UNDO = Workloads.method("BoardWorkload", "placeAndUndo", int.class);
+	private final static MethodHandle CLEAR_FOUR_LINES = Workloads.method("BoardWorkload", "clearFourLines", int.class);
+	private final static MethodHandle COPY = Workloads.method("BoardWorkload", "copy", int.class);
+	private final static MethodHandle SCORE_LEGACY = Workloads.method("BoardWorkload", "scoreLegacy", int.class);
+	private final static MethodHandle SCORE_FEATURES = Workloads.method("BoardWorkload", "scoreFeatures", int.class);
+
+	/**
+	 * The kind of board benchmarked
+	 */
+	@Param({"empty", "half-full", "ragged", "hole-ridden"})
+	public String kind;
+
+	/**
+	 * The boards of that kind, a BoardWorkload
+	 */
+	private Object workload;
+
+	/**
+	 * Builds the boards of the kind benchmarked
+	 * @throws Throwable never, the workload is always there
+	 */
+	@Setup
+	public void setUp() throws Throwable {
+		workload = (Object) CREATE.invokeExact(kind);
+	}
+
+	/**
+	 * Places a piece and undoes it, cycling through every piece, rotation and
+	 * position
+	 * @return the lines cleared
+	 * @throws Throwable never
+	 */
+	@Benchmark
+	public int placeAndUndo() throws Throwable {
+		return (int) PLACE_AND_UNDO.invokeExact(workload);
+	}
+
+	/**
+	 * Places an upright I piece that clears 4 lines, and undoes it
+	 * @return the lines cleared
+	 * @throws Throwable never
+	 */
+	@Benchmark
+	public int clearFourLines() throws Throwable {
+		return (int) CLEAR_FOUR_LINES.invokeExact(workload);
+	}
+
+	/**
+	 * Copies the board into a board already big enough
+	 * @return the height of the copy
+	 * @throws Throwable never
+	 */
+	@Benchmark
+	public int copy() throws Throwable {
+		return (int) COPY.invokeExact(workload);
+	}
+
+	/**
+	 * Scores the board by the legacy weights, from the column heights alone
+	 * @return the score
+	 * @throws Throwable never
+	 */
+	@Benchmark
+	public int scoreLegacy() throws Throwable {
+		return (int) SCORE_LEGACY.invokeExact(workload);
+	}
+
+	/**
+	 * Scores the board by every feature
+	 * @return the score
+	 * @throws Throwable never
+	 */
+	@Benchmark
+	public int scoreFeatures() throws Throwable {
+		return (int) SCORE_FEATURES.invokeExact(workload);
+	}
+}
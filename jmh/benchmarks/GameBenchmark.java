@@ -0,0 +1,54 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * AI4211 Project
+ * JMH benchmark of whole games of seeded random pieces, played by GameWorkload
+ * with the default settings. Each game is timed once per iteration, as the
+ * longest takes tens of seconds.
+ *
+ * Built and run with the jmh profile, where -prof gc adds the bytes allocated,
+ * which over a whole game is setting it up and the stack growing:
+ *
+ *   mvn -P jmh package
+ *   java -jar target/benchmarks.jar GameBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class GameBenchmark {
+
+	private final static MethodHandle PLAY = Workloads.function("GameWorkload", "play", long.class, int.class);
+
+	/**
+	 * The number of pieces in the game
+	 */
+	@Param({"1000", "100000", "10000000"})
+	public int pieces;
+
+	/**
+	 * Plays a whole game
+	 * @return the final height of the stack
+	 * @throws Throwable never, the pieces and output are in memory
+	 */
+	@Benchmark
+	public long play() throws Throwable {
+		return (long) PLAY.invokeExact(pieces);
+	}
+}
@@ -0,0 +1,79 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * AI4211 Project
+ * JMH benchmark of reading a 256MB text file of pieces in chunks, through a
+ * stream and through a memory map, run by ReadWorkload.
+ *
+ * Built and run with the jmh profile, where -prof gc adds the bytes allocated:
+ *
+ *   mvn -P jmh package
+ *   java -jar target/benchmarks.jar ReadBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class ReadBenchmark {
+
+	private final static MethodHandle CREATE = Workloads.constructor("ReadWorkload", String.class);
+	private final static MethodHandle READ = Workloads.method("ReadWorkload", "read", long.class);
+	private final static MethodHandle DELETE = Workloads.method("ReadWorkload", "delete", void.class);
+
+	/**
+	 * How the file is read
+	 */
+	@Param({"streamed", "mapped"})
+	public String reader;
+
+	/**
+	 * The file and how it is read, a ReadWorkload
+	 */
+	private Object workload;
+
+	/**
+	 * Writes the piece file
+	 * @throws Throwable if the file cannot be written
+	 */
+	@Setup
+	public void setUp() throws Throwable {
+		workload = (Object) CREATE.invokeExact(reader);
+	}
+
+	/**
+	 * Deletes the piece file
+	 * @throws Throwable if the file cannot be deleted
+	 */
+	@TearDown
+	public void tearDown() throws Throwable {
+		DELETE.invokeExact(workload);
+	}
+
+	/**
+	 * Reads the whole file in chunks
+	 * @return the number of pieces read plus the last of each chunk, so none are skipped
+	 * @throws Throwable if the file cannot be read
+	 */
+	@Benchmark
+	public long read() throws Throwable {
+		return (long) READ.invokeExact(workload);
+	}
+}
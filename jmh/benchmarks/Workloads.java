@@ -0,0 +1,72 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * AI4211 Project
+ * Finds the workloads the benchmarks run. The solver and the workloads are in
+ * the default package, which no named package can import, and JMH only takes
+ * benchmarks in a named one. So each workload method is looked up by name once
+ * and kept in a static final method handle, which the JIT inlines like a
+ * direct call. A workload object is passed around as a plain Object
+ */
+final class Workloads {
+
+	/**
+	 * Not to be created
+	 */
+	private Workloads() {
+	}
+
+	/**
+	 * Finds the constructor of a workload taking one argument
+	 * @param workload the name of the workload class
+	 * @param argument the type of the argument
+	 * @return the constructor, returning Object
+	 */
+	static MethodHandle constructor(String workload, Class<?> argument) {
+		try {
+			return MethodHandles.publicLookup()
+				.findConstructor(Class.forName(workload), MethodType.methodType(void.class, argument))
+				.asType(MethodType.methodType(Object.class, argument));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("No workload " + workload, e);
+		}
+	}
+
+	/**
+	 * Finds a method of a workload taking no arguments
+	 * @param workload the name of the workload class
+	 * @param name the name of the method
+	 * @param returns the return type of the method
+	 * @return the method, taking the workload as an Object
+	 */
+	static MethodHandle method(String workload, String name, Class<?> returns) {
+		try {
+			return MethodHandles.publicLookup()
+				.findVirtual(Class.forName(workload), name, MethodType.methodType(returns))
+				.asType(MethodType.methodType(returns, Object.class));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("No workload " + workload + "." + name, e);
+		}
+	}
+
+	/**
+	 * Finds a static method of a workload taking one argument
+	 * @param workload the name of the workload class
+	 * @param name the name of the method
+	 * @param returns the return type of the method
+	 * @param argument the type of the argument
+	 * @return the method
+	 */
+	static MethodHandle function(String workload, String name, Class<?> returns, Class<?> argument) {
+		try {
+			return MethodHandles.publicLookup()
+				.findStatic(Class.forName(workload), name, MethodType.methodType(returns, argument));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("No workload " + workload + "." + name, e);
+		}
+	}
+}
@@ -0,0 +1,601 @@
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AI4211 Project
+ * Looks ahead over the known upcoming pieces with a beam search. Every ply plays
+ * the next piece, or swaps it for a buffer piece, on each of the best boards so
+ * far, and only the best scored boards are carried on to the next ply. The move
+ * chosen is the first move of the best board after the last ply. With a
+ * transposition table the move chosen from a whole search is cached against
+ * its starting board, buffer and pieces, salted with everything the search was
+ * created with, so the table never changes the move chosen.
+ *
+ * Two children with the same board and buffer lead to the same subtree. When
+ * created to drop duplicates, only the first is kept and the slot goes to the
+ * next best board instead. This changes the boards carried on, and so the
+ * moves chosen, from a beam keeping both, so it is off unless asked for.
+ *
+ * A search can be given a deadline, checked before each board is expanded. A
+ * search cut short by it leaves the move of the last search as it was, so a
+ * caller can deepen search by search and keep the deepest move completed.
+ *
+ * The boards of a ply can be expanded in parallel, split into runs of
+ * consecutive boards, one run to a worker with its own evaluator, generator
+ * and kept children. The kept children of the runs are merged in board order,
+ * so equal scores still go to the child tried first and the same boards are
+ * kept as when expanding one board after another. The runs complete one
+ * completer, reused every ply, which wakes the searching thread once the last
+ * run is done.
+ *
+ * All boards and node data are held in two pools that are swapped every ply and
+ * recycled every search, so a search allocates nothing once the boards have
+ * grown to the height of the stack, unless expanding in parallel
+ */
+public class BeamSearch {
+
+	/**
+	 * The number of pieces to look ahead, including the incoming piece
+	 */
+	private final int depth;
+
+	/**
+	 * The number of boards carried from one ply to the next
+	 */
+	private final int width;
+
+	/**
+	 * The cache of finished searches, or null
+	 */
+	private final TranspositionTable table;
+
+	/**
+	 * Whether to drop a child with the same board and buffer as one already kept
+	 */
+	private final boolean dedup;
+
+	/**
+	 * Salts the key of a search in the table with the weights, the width and
+	 * whether duplicates are dropped, so that searches that could choose
+	 * differently never share an entry, nor share one with a judged board
+	 */
+	private final long salt;
+
+	/**
+	 * The boards of the current ply, and the pool the next ply is built in
+	 */
+	private Board[] beam, next;
+
+	/**
+	 * The buffer held on each board of the current ply and of the next ply
+	 */
+	private int[][] beamBuffer, nextBuffer;
+
+	/**
+	 * The first move leading to each board of the current ply and of the next
+	 * ply, packed by packRoot
+	 */
+	private int[] beamRoot, nextRoot;
+
+	/**
+	 * The number of boards in the current ply
+	 */
+	private int beamSize;
+
+	/**
+	 * The workers expanding the boards of a ply, only the first unless in parallel
+	 */
+	private final Expansion[] workers;
+
+	/**
+	 * The kept children of every worker merged, when expanding in parallel
+	 */
+	private final Expansion merged;
+
+	/**
+	 * Completes once every run of a ply has been expanded
+	 */
+	private final PlyDone plyDone = new PlyDone();
+
+	/**
+	 * The move chosen by the last search. bestUse is 0 if the incoming piece is
+	 * played, or 1 + the index of the buffer piece played in its place
+	 */
+	int bestIden, bestRotate, bestPos, bestUse;
+
+	/**
+	 * The number of boards scored by the last search, 0 if it was cached
+	 */
+	int evaluated;
+
+	/**
+	 * Creates a beam search expanding one board after another, allocating all
+	 * of its boards up front
+	 * @param depth the number of pieces to look ahead, at least 1
+	 * @param width the number of boards to carry between plies, at least 1
+	 * @param columns the number of columns of the boards searched
+	 * @param slots the number of pieces the buffer holds
+	 * @param evaluator judges each board reached
+	 * @param table the cache of finished searches, or null
+	 */
+	public BeamSearch(int depth, int width, int columns, int slots, Evaluator evaluator, TranspositionTable table) {
+		this(depth, width, columns, slots, evaluator, table, false, false);
+	}
+
+	/**
+	 * Creates a beam search, allocating all of its boards up front
+	 * @param depth the number of pieces to look ahead, at least 1
+	 * @param width the number of boards to carry between plies, at least 1
+	 * @param columns the number of columns of the boards searched
+	 * @param slots the number of pieces the buffer holds
+	 * @param evaluator judges each board reached
+	 * @param table the cache of finished searches, or null
+	 * @param parallel true to expand the boards of each ply across the common
+	 * 	ForkJoin pool
+	 * @param dedup true to keep only the first of the children with the same
+	 * 	board and buffer, which changes the moves chosen
+	 */
+	public BeamSearch(int depth, int width, int columns, int slots, Evaluator evaluator, TranspositionTable table,
+			boolean parallel, boolean dedup) {
+		if (depth < 1 || width < 1)
+			throw new IllegalArgumentException("Beam search needs a depth and width of at least 1");
+		this.depth = depth;
+		this.width = width;
+		this.table = table;
+		this.dedup = dedup;
+		long s = TranspositionTable.mix(0xBEA5EA7C4BEA5EA7L + width * 2 + (dedup ? 1 : 0));
+		for (int weight : evaluator.weights()) {
+			s = TranspositionTable.mix(s + weight);
+		}
+		salt = s;
+		//the caller works a run too, so one more worker than the pool has threads
+		int threads = parallel ? Math.min(width, ForkJoinPool.getCommonPoolParallelism() + 1) : 1;
+		workers = new Expansion[threads];
+		workers[0] = new Expansion(evaluator, columns);
+		for (int w = 1; w < threads; w++) {
+			workers[w] = new Expansion(new Evaluator(evaluator.weights(), table), columns);
+		}
+		merged = threads > 1 ? new Expansion(evaluator, columns) : null;
+		beam = new Board[width];
+		next = new Board[width];
+		for (int i = 0; i < width; i++) {
+			beam[i] = new Board(TetrisSolver.GRID_HEIGHT, columns);
+			next[i] = new Board(TetrisSolver.GRID_HEIGHT, columns);
+		}
+		beamBuffer = new int[width][slots];
+		nextBuffer = new int[width][slots];
+		beamRoot = new int[width];
+		nextRoot = new int[width];
+	}
+
+	/**
+	 * Searches for the best move, leaving it in bestIden, bestRotate, bestPos and
+	 * bestUse
+	 * @param board the current game state, not changed by the search
+	 * @param buffer the pieces currently in the buffer
+	 * @param upcoming the known pieces, the incoming piece first
+	 * @param offset the index of the incoming piece in upcoming
+	 * @param known the number of known pieces from offset, at least 1
+	 */
+	public void search(Board board, int[] buffer, int[] upcoming, int offset, int known) {
+		search(board, buffer, upcoming, offset, known, depth, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Searches for the best move no deeper than a given number of pieces, giving
+	 * up if a deadline passes first
+	 * @param board the current game state, not changed by the search
+	 * @param buffer the pieces currently in the buffer
+	 * @param upcoming the known pieces, the incoming piece first
+	 * @param offset the index of the incoming piece in upcoming
+	 * @param known the number of known pieces from offset, at least 1
+	 * @param limit the most pieces to look ahead, up to the depth of the search
+	 * @param deadline the System.nanoTime to give up at, or Long.MAX_VALUE for none
+	 * @return true if the search finished and left its move in bestIden,
+	 * 	bestRotate, bestPos and bestUse, false if the deadline passed first
+	 */
+	public boolean search(Board board, int[] buffer, int[] upcoming, int offset, int known, int limit, long deadline) {
+		int plies = Math.min(Math.min(depth, limit), known);
+		evaluated = 0;
+		
+		//a search from the same board, buffer and pieces has the same result
+		long key = 0;
+		if (table != null) {
+			key = board.hash ^ bufferKey(buffer) ^ salt;
+			for (int ply = 0; ply < plies; ply++) {
+				key = TranspositionTable.mix(key + upcoming[offset + ply]);
+			}
+			long root = table.get(key, -1);
+			if (root != -1) {
+				unpackRoot((int) root);
+				return true;
+			}
+		}
+		
+		//start from the one current board
+		beam[0].copyFrom(board);
+		System.arraycopy(buffer, 0, beamBuffer[0], 0, buffer.length);
+		beamSize = 1;
+
+		for (int ply = 0; ply < plies; ply++) {
+			if (!expand(upcoming[offset + ply], ply == 0, deadline))
+				return false;
+		}
+
+		//the boards are sorted best first, so take the first move to the first board
+		unpackRoot(beamRoot[0]);
+		if (table != null) {
+			table.put(key, beamRoot[0]);
+		}
+		return true;
+	}
+
+	/*************************************************************************
+	 *                       PRIVATE HELPER METHODS                          *
+	 *************************************************************************/
+
+	/**
+	 * Expands every board of the current ply with every placement of the incoming
+	 * piece or a buffer piece, keeping the best children as the next ply. In
+	 * parallel, each worker expands a run of consecutive boards and their kept
+	 * children are then offered again in the order of the runs
+	 * @param incoming the piece delivered this ply
+	 * @param first whether this is the first ply, where the moves are the roots
+	 * @param deadline the System.nanoTime to give up at, or Long.MAX_VALUE for none
+	 * @return false if the deadline passed before every board was expanded
+	 */
+	private boolean expand(int incoming, boolean first, long deadline) {
+		int runs = Math.min(beamSize, workers.length);
+		Expansion kept = workers[0];
+		if (runs == 1) {
+			kept.expand(0, beamSize, incoming, deadline);
+			evaluated += kept.evaluated;
+			if (kept.late)
+				return false;
+		} else {
+			plyDone.reinitialize();
+			plyDone.setPendingCount(runs - 1);
+			plyDone.waiter = Thread.currentThread();
+			for (int w = 0; w < runs; w++) {
+				workers[w].reinitialize();
+				workers[w].set(beamSize * w / runs, beamSize * (w + 1) / runs, incoming, deadline);
+			}
+			for (int w = 1; w < runs; w++) {
+				workers[w].fork();
+			}
+			workers[0].compute();
+			//wait for every run before touching the boards again, even if one was
+			//late, expanding here any run not yet taken
+			for (int w = 1; w < runs; w++) {
+				if (workers[w].tryUnfork())
+					workers[w].compute();
+			}
+			plyDone.await();
+			boolean late = false;
+			for (int w = 0; w < runs; w++) {
+				evaluated += workers[w].evaluated;
+				late |= workers[w].late;
+			}
+			if (late)
+				return false;
+			kept = merged;
+			kept.childCount = 0;
+			for (int w = 0; w < runs; w++) {
+				Expansion run = workers[w];
+				for (int c = 0; c < run.childCount; c++) {
+					kept.offer(run.childParent[c], run.childUse[c], run.childRotate[c], run.childPos[c],
+						run.childScore[c], run.childKey[c]);
+				}
+			}
+		}
+
+		//build the kept children in the other pool
+		for (int c = 0; c < kept.childCount; c++) {
+			int parent = kept.childParent[c];
+			int use = kept.childUse[c];
+			int[] held = nextBuffer[c];
+			System.arraycopy(beamBuffer[parent], 0, held, 0, held.length);
+			int iden = incoming;
+			if (use > 0) {
+				iden = held[use-1];
+				held[use-1] = incoming;
+			}
+			next[c].copyFrom(beam[parent]);
+			next[c].place(iden, kept.childRotate[c], kept.childPos[c]);
+			nextRoot[c] = first ? packRoot(use, iden, kept.childRotate[c], kept.childPos[c]) : beamRoot[parent];
+		}
+
+		//and make them the current ply
+		Board[] boards = beam;
+		beam = next;
+		next = boards;
+		int[][] buffers = beamBuffer;
+		beamBuffer = nextBuffer;
+		nextBuffer = buffers;
+		int[] roots = beamRoot;
+		beamRoot = nextRoot;
+		nextRoot = roots;
+		beamSize = kept.childCount;
+		return true;
+	}
+
+	/**
+	 * Hashes the pieces held in a buffer
+	 * @param held the buffer
+	 * @return the hash
+	 */
+	private static long bufferKey(int[] held) {
+		long key = 0;
+		for (int i = 0; i < held.length; i++) {
+			key ^= slotKey(i, held[i]);
+		}
+		return key;
+	}
+
+	/**
+	 * Hashes one slot of a buffer
+	 * @param slot the index of the slot
+	 * @param iden the piece held in it
+	 * @return the hash
+	 */
+	private static long slotKey(int slot, int iden) {
+		return TranspositionTable.mix(0x7E7A15L * (slot + 1) + iden);
+	}
+
+	/**
+	 * Sets the best move from a packed first move
+	 * @param root the packed move
+	 */
+	private void unpackRoot(int root) {
+		bestUse = root >>> 24;
+		bestIden = (root >>> 16) & 0xFF;
+		bestRotate = (root >>> 8) & 0xFF;
+		bestPos = root & 0xFF;
+	}
+
+	/**
+	 * Packs a first move into one int, a byte each
+	 * @param use which piece was used
+	 * @param iden the identity of the piece
+	 * @param rotate the rotation
+	 * @param pos the position
+	 * @return the packed move
+	 */
+	private static int packRoot(int use, int iden, int rotate, int pos) {
+		return (use << 24) | (iden << 16) | (rotate << 8) | pos;
+	}
+
+	/*************************************************************************
+	 *                            EXPANSION                                  *
+	 *************************************************************************/
+
+	/**
+	 * Expands a run of the boards of a ply and keeps the best of their children.
+	 * Each board is only ever played on by the one worker expanding it, so
+	 * workers share nothing they change
+	 */
+	private final class Expansion extends CountedCompleter<Void> {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Judges each board reached
+		 */
+		private final Evaluator evaluator;
+
+		/**
+		 * The distinct placements of every piece on the boards searched
+		 */
+		private final MoveGenerator generator;
+
+		/**
+		 * The features of the board being expanded, to bound its children by
+		 */
+		private final int[] base = new int[Evaluator.FEATURES];
+
+		/**
+		 * The best children found, kept sorted best first. For each, the board it
+		 * was played on, which piece it used, the rotation, the position and its
+		 * score
+		 */
+		final int[] childParent, childUse, childRotate, childPos, childScore;
+
+		/**
+		 * The hash of the board and buffer of each kept child
+		 */
+		final long[] childKey;
+
+		/**
+		 * The number of children kept so far this ply
+		 */
+		int childCount;
+
+		/**
+		 * The number of boards scored expanding the run
+		 */
+		int evaluated;
+
+		/**
+		 * Whether the deadline passed before the whole run was expanded
+		 */
+		boolean late;
+
+		/**
+		 * The run of boards to expand when forked, from inclusive and to exclusive
+		 */
+		private int from, to;
+
+		/**
+		 * The piece delivered this ply, and the deadline, when forked
+		 */
+		private int incoming;
+		private long deadline;
+
+		/**
+		 * Creates a worker with room for a full ply of kept children
+		 * @param evaluator judges each board reached
+		 * @param columns the number of columns of the boards searched
+		 */
+		Expansion(Evaluator evaluator, int columns) {
+			super(plyDone);
+			this.evaluator = evaluator;
+			generator = new MoveGenerator(columns);
+			childParent = new int[width];
+			childUse = new int[width];
+			childRotate = new int[width];
+			childPos = new int[width];
+			childScore = new int[width];
+			childKey = new long[width];
+		}
+
+		/**
+		 * Sets the run to expand when forked
+		 * @param from the first board of the run
+		 * @param to one past the last board of the run
+		 * @param incoming the piece delivered this ply
+		 * @param deadline the System.nanoTime to give up at, or Long.MAX_VALUE for none
+		 */
+		void set(int from, int to, int incoming, long deadline) {
+			this.from = from;
+			this.to = to;
+			this.incoming = incoming;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public void compute() {
+			expand(from, to, incoming, deadline);
+			tryComplete();
+		}
+
+		/**
+		 * Expands a run of boards with every placement of the incoming piece or a
+		 * buffer piece, keeping the best children. Once the kept children are
+		 * full, a placement whose bound cannot beat the worst of them is not
+		 * played at all, as it would not be kept
+		 * @param from the first board of the run
+		 * @param to one past the last board of the run
+		 * @param incoming the piece delivered this ply
+		 * @param deadline the System.nanoTime to give up at, or Long.MAX_VALUE for none
+		 */
+		void expand(int from, int to, int incoming, long deadline) {
+			childCount = 0;
+			evaluated = 0;
+			late = false;
+			for (int b = from; b < to; b++) {
+				if (deadline != Long.MAX_VALUE && System.nanoTime() >= deadline) {
+					late = true;
+					return;
+				}
+				Board board = beam[b];
+				int[] held = beamBuffer[b];
+				evaluator.prepare(board, base);
+				//the incoming piece, then each buffer piece in its place
+				for (int use = 0; use <= held.length; use++) {
+					int iden = use == 0 ? incoming : held[use-1];
+					//a piece already tried leaves the same board and buffer
+					if (use > 0 && (iden == incoming || MoveGenerator.repeats(held, 0, use - 1)))
+						continue;
+					//the buffer after the move differs only in the swapped slot
+					long swapKey = use == 0 ? 0 : slotKey(use - 1, iden) ^ slotKey(use - 1, incoming);
+					long heldKey = bufferKey(held) ^ swapKey;
+					for (int move : generator.moves(iden)) {
+						int y = Move.rotate(move);
+						int z = Move.pos(move);
+						if (childCount == width && evaluator.bound(board, base, iden, y, z) <= childScore[width-1])
+							continue;
+						board.apply(iden, y, z);
+						offer(b, use, y, z, evaluator.evaluate(board), board.hash ^ heldKey);
+						evaluated++;
+						board.undo();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Offers a child to the kept children. It is kept only if it scores
+		 * strictly higher than a child already kept, or there is still room, so
+		 * of equal scores the child offered first wins. When dropping duplicates,
+		 * a child with the same board and buffer as one already kept scores the
+		 * same and is dropped
+		 * @param parent the index of the board it was played on
+		 * @param use which piece it used
+		 * @param rotate the rotation
+		 * @param pos the position
+		 * @param score the score of the board after the move
+		 * @param key the hash of the board and buffer after the move
+		 */
+		void offer(int parent, int use, int rotate, int pos, int score, long key) {
+			if (childCount == width && score <= childScore[width-1])
+				return;
+			if (dedup) {
+				for (int k = 0; k < childCount; k++) {
+					if (childKey[k] == key && childScore[k] == score)
+						return;
+				}
+			}
+			//find where it goes, after every child scoring at least as high
+			int i = childCount < width ? childCount++ : width - 1;
+			while (i > 0 && childScore[i-1] < score) {
+				childParent[i] = childParent[i-1];
+				childUse[i] = childUse[i-1];
+				childRotate[i] = childRotate[i-1];
+				childPos[i] = childPos[i-1];
+				childScore[i] = childScore[i-1];
+				childKey[i] = childKey[i-1];
+				i--;
+			}
+			childParent[i] = parent;
+			childUse[i] = use;
+			childRotate[i] = rotate;
+			childPos[i] = pos;
+			childScore[i] = score;
+			childKey[i] = key;
+		}
+	}
+
+	/**
+	 * Completes once every run of a ply has been expanded, and wakes the thread
+	 * waiting on it. That thread parks rather than blocking in join, which
+	 * would allocate a wait node whenever a run is still being expanded
+	 */
+	private static final class PlyDone extends CountedCompleter<Void> {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The thread waiting for the runs
+		 */
+		volatile Thread waiter;
+
+		@Override
+		public void compute() {
+		}
+
+		@Override
+		public void onCompletion(CountedCompleter<?> caller) {
+			//tryComplete only marks it done after this, so the waiter must not wake first
+			quietlyComplete();
+			LockSupport.unpark(waiter);
+		}
+
+		@Override
+		public boolean onExceptionalCompletion(Throwable ex, CountedCompleter<?> caller) {
+			LockSupport.unpark(waiter);
+			return true;
+		}
+
+		/**
+		 * Waits until every run has been expanded
+		 * @throws RuntimeException if expanding a run threw it
+		 */
+		void await() {
+			while (!isDone()) {
+				LockSupport.park(this);
+			}
+			join();
+		}
+	}
+}
@@ -0,0 +1,671 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * AI4211 Project
+ * Bitboard representation of a tetris game state. The grid is stored row-major,
+ * one int per row, where bit i of a row is column i from the left wall.
+ *
+ * Only a window of rows is searched. A row buried under every column can only
+ * be reached again if the blocks covering it are cleared away, so once a row
+ * lies below the reach of every column it is sealed off below the window. The
+ * sealed rows are kept in SealedRows, which holds the top of them in memory
+ * and spills the rest to a file, and are brought back into the window by place
+ * should clears ever empty a column of the window, so the game played is
+ * exactly the one the rules give. Copies hold only the window, which is all
+ * looking ahead needs, so copying costs the height of the surface rather than
+ * of the whole stack
+ */
+public class Board implements Closeable {
+
+	/*************************************************************************
+	 *                             CONSTANTS                                 *
+	 *************************************************************************/
+
+	/**
+	 * The narrowest and widest boards allowed. A row is one int, and a lying I
+	 * piece must fit
+	 */
+	final static int MIN_WIDTH = 4, MAX_WIDTH = 31;
+
+	/**
+	 * The deepest a column may reach below the lowest column top before the
+	 * rows under it are sealed regardless. Sealed rows are kept, so this only
+	 * bounds the window that is searched and scored, never the game played
+	 */
+	final static int SEAL_DEPTH = 32;
+
+	/*************************************************************************
+	 *                         INSTANCE VARIABLES                            *
+	 *************************************************************************/
+
+	/**
+	 * The number of columns
+	 */
+	final int width;
+
+	/**
+	 * A row with every column filled
+	 */
+	final int fullMask;
+
+	/**
+	 * The height of the window in rows. Grows whenever a piece would not fit
+	 */
+	int height;
+
+	/**
+	 * The rows of the window, row 0 being the lowest row not yet sealed
+	 */
+	int[] rows;
+
+	/**
+	 * The number of rows sealed off below the window
+	 */
+	long sealedRows = 0;
+
+	/**
+	 * The rows sealed off below the window, or null for a copy, which only holds
+	 * the window and treats its floor as solid
+	 */
+	SealedRows buried = new SealedRows();
+
+	/**
+	 * The height of every column within the window, one above its highest block
+	 */
+	final int[] heights;
+
+	/**
+	 * A Zobrist-style hash of the rows of the window, the XOR of rowKey over
+	 * every row. Kept up to date as pieces are placed and undone
+	 */
+	long hash = 0;
+
+	/*************************************************************************
+	 *                            UNDO JOURNAL                               *
+	 *************************************************************************/
+
+	/**
+	 * The number of applied pieces that can still be undone
+	 */
+	private int depth = 0;
+
+	/**
+	 * The row each journalled piece was placed at, indexed by depth
+	 */
+	private int[] placedRow = new int[8];
+
+	/**
+	 * The rows covered by each journalled piece as they were before it was placed,
+	 * 4 entries per depth
+	 */
+	private int[] savedRows = new int[8 * 4];
+
+	/**
+	 * The column heights before each journalled piece was placed, width entries
+	 * per depth
+	 */
+	private int[] savedHeights;
+
+	/**
+	 * The rows cleared by each journalled piece in the order they were removed,
+	 * 4 entries per depth
+	 */
+	private int[] clearedRows = new int[8 * 4];
+
+	/**
+	 * The number of rows cleared by each journalled piece, indexed by depth
+	 */
+	private int[] clearedCount = new int[8];
+
+	/**
+	 * The hash before each journalled piece was placed, indexed by depth
+	 */
+	private long[] savedHash = new long[8];
+
+	/**
+	 * Creates an empty board of the standard width
+	 * @param height the number of rows of the board
+	 */
+	public Board(int height) {
+		this(height, TetrisSolver.GRID_WIDTH);
+	}
+
+	/**
+	 * Creates an empty board
+	 * @param height the number of rows of the board
+	 * @param width the number of columns, from MIN_WIDTH to MAX_WIDTH
+	 */
+	public Board(int height, int width) {
+		if (width < MIN_WIDTH || width > MAX_WIDTH)
+			throw new IllegalArgumentException("Board width must be from " + MIN_WIDTH + " to " + MAX_WIDTH + ", not " + width);
+		this.width = width;
+		this.fullMask = (1 << width) - 1;
+		this.height = height;
+		this.rows = new int[height];
+		this.heights = new int[width];
+		this.savedHeights = new int[8 * width];
+	}
+
+	/*************************************************************************
+	 *                          PUBLIC METHODS                               *
+	 *************************************************************************/
+
+	/**
+	 * Copies the current board and returns it
+	 * @return the copied board
+	 */
+	public Board copy() {
+		Board temp = new Board(height, width);
+		temp.copyFrom(this);
+		return temp;
+	}
+
+	/**
+	 * Reverts this board to the window of another board. The rows are reused if
+	 * there is room for them, so a board can be recycled without allocating. The
+	 * rows sealed below the window are counted but not copied, so the copy is for
+	 * looking ahead rather than for playing the game on. The undo journal is not
+	 * copied, and is emptied
+	 * @param other the board to copy from, of the same width
+	 */
+	public void copyFrom(Board other) {
+		if (other.width != width)
+			throw new IllegalArgumentException("Cannot copy a board " + other.width + " wide to one " + width + " wide");
+		if (rows.length < other.height) {
+			rows = new int[other.height];
+		}
+		height = rows.length;
+		System.arraycopy(other.rows, 0, rows, 0, other.height);
+		Arrays.fill(rows, other.height, height, 0);
+		System.arraycopy(other.heights, 0, heights, 0, heights.length);
+		sealedRows = other.sealedRows;
+		buried = null;
+		hash = other.hash;
+		depth = 0;
+	}
+
+	/**
+	 * Reverts this board to a snapshot of another, to be saved while the other
+	 * carries on. Copies the window the same way as copyFrom, and of the sealed
+	 * rows only those held in memory and where the rest lie in their file, so
+	 * a snapshot costs the same however tall the stack is
+	 * @param other the board to copy from, of the same width, not a copy
+	 */
+	void snapshotFrom(Board other) {
+		SealedRows sealed = buried != null ? buried : new SealedRows();
+		copyFrom(other);
+		sealed.copyFrom(other.buried);
+		buried = sealed;
+	}
+
+	/**
+	 * Creates a board of the standard width holding the given rows, working out
+	 * the column heights and hash from them. Used to set up game states for
+	 * benchmarks and tools
+	 * @param pattern the rows from the bottom up, none of them full
+	 * @return the board
+	 */
+	static Board of(int[] pattern) {
+		Board board = new Board(Math.max(TetrisSolver.GRID_HEIGHT, pattern.length * 2));
+		for (int r = 0; r < pattern.length; r++) {
+			board.rows[r] = pattern[r] & board.fullMask;
+			for (int c = 0; c < board.heights.length; c++) {
+				if ((board.rows[r] & (1 << c)) != 0)
+					board.heights[c] = r + 1;
+			}
+		}
+		board.rehash();
+		return board;
+	}
+
+	/**
+	 * Sets the file the sealed rows are spilled to, rather than a temporary one,
+	 * so that a saved board can be loaded again. Only valid before any rows are
+	 * spilled
+	 * @param path the file
+	 */
+	void spillTo(Path path) {
+		buried.spillTo(path);
+	}
+
+	/**
+	 * Releases the file the sealed rows were spilled to, deleting it if it is a
+	 * temporary one. The board can still be read, but no longer played on
+	 * @throws IOException if the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		if (buried != null)
+			buried.close();
+	}
+
+	/**
+	 * Returns the number of bytes save writes for this board
+	 * @return the size of the saved board
+	 */
+	int savedBytes() {
+		return buried.savedBytes() + 8 + 4 + (stackHeight() + width) * 4;
+	}
+
+	/**
+	 * Writes the board to a buffer: the sealed rows as written by SealedRows.save,
+	 * which holds only those not spilled to its file, the hash, the rows of the
+	 * stack within the window and the column heights. Only valid between
+	 * committed moves, as the undo journal is not saved, and not for a copy, which
+	 * does not hold the sealed rows
+	 * @param out the buffer, with at least savedBytes left
+	 * @throws IllegalStateException if the board is a copy
+	 */
+	void save(ByteBuffer out) {
+		if (buried == null)
+			throw new IllegalStateException("A copy of a board does not hold its sealed rows");
+		int stack = stackHeight();
+		buried.save(out);
+		out.putLong(hash);
+		out.putInt(stack);
+		for (int r = 0; r < stack; r++) {
+			out.putInt(rows[r]);
+		}
+		for (int c = 0; c < width; c++) {
+			out.putInt(heights[c]);
+		}
+	}
+
+	/**
+	 * Reads a board written by save, checking that it is a board that can be
+	 * reached in play
+	 * @param in the buffer, positioned at the saved board
+	 * @param width the number of columns of the saved board
+	 * @param rows the file its sealed rows were spilled to, or null if none were
+	 * @return the board, spilling any more sealed rows to the same file
+	 * @throws IOException if the file of sealed rows cannot be read
+	 * @throws IllegalArgumentException if the saved board is not valid
+	 */
+	static Board load(ByteBuffer in, int width, Path rows) throws IOException {
+		SealedRows buried = SealedRows.load(in, (1 << width) - 1, rows);
+		long hash = in.getLong();
+		int stack = in.getInt();
+		if (stack < 0 || stack > in.remaining() / 4)
+			throw new IllegalArgumentException("The saved board is not valid");
+		Board board = new Board(Math.max(TetrisSolver.GRID_HEIGHT, stack * 2), width);
+		board.sealedRows = buried.size();
+		board.buried = buried;
+		for (int r = 0; r < stack; r++) {
+			int row = in.getInt();
+			if ((row & ~board.fullMask) != 0 || row == board.fullMask)
+				throw new IllegalArgumentException("The saved board holds a row that is not valid");
+			board.rows[r] = row;
+		}
+		int top = 0;
+		for (int c = 0; c < width; c++) {
+			int h = in.getInt();
+			if (h < 0 || h > stack || (h > 0 && !board.isFilled(c, h - 1)))
+				throw new IllegalArgumentException("The saved board has a column height that is not valid");
+			board.heights[c] = h;
+			top = Math.max(top, h);
+		}
+		board.rehash();
+		if (top != stack || board.hash != hash)
+			throw new IllegalArgumentException("The saved board does not match its hash");
+		return board;
+	}
+
+	/**
+	 * Returns whether a given cell is filled
+	 * @param column the column, from the left wall
+	 * @param row the row, from the bottom of the window
+	 * @return true if the cell holds a block
+	 */
+	public boolean isFilled(int column, int row) {
+		return (rows[row] & (1 << column)) != 0;
+	}
+
+	/**
+	 * Method to place a piece onto the board within tetris rules, then clear
+	 * any completed lines. The placement is final and cannot be undone. Should
+	 * the clears empty a column of the window, sealed rows are brought back
+	 * until it meets a block again, so the next piece falls as far as it would
+	 * on the whole stack
+	 * @param iden the identity of the piece
+	 * @param rotate the rotation
+	 * @param pos the position, from the left wall. Fixed to touch the right
+	 * 	wall if the piece would not fit
+	 * @return the number of lines cleared
+	 * @throws java.io.UncheckedIOException if sealed rows spilled to a file
+	 * 	cannot be read back
+	 */
+	public int place(int iden, int rotate, int pos) {
+		int cleared = drop(iden, rotate, pos, false);
+		if (cleared > 0 && sealedRows > 0 && buried != null)
+			unseal();
+		return cleared;
+	}
+
+	/**
+	 * Places a piece the same way as place, but journals the cells it set and
+	 * the lines it cleared so that undo can restore exactly that change
+	 * @param iden the identity of the piece
+	 * @param rotate the rotation
+	 * @param pos the position, from the left wall
+	 * @return the number of lines cleared
+	 */
+	public int apply(int iden, int rotate, int pos) {
+		return drop(iden, rotate, pos, true);
+	}
+
+	/**
+	 * Reverts the most recently applied piece that has not yet been undone
+	 */
+	public void undo() {
+		depth--;
+		//put the cleared rows back, the last removed first, moving up only the
+		//rows of the stack above each
+		int top = clearedCount[depth] > 0 ? stackHeight() : 0;
+		for (int k = clearedCount[depth] - 1; k >= 0; k--) {
+			int j = clearedRows[depth*4 + k];
+			System.arraycopy(rows, j, rows, j + 1, top - j);
+			rows[j] = fullMask;
+			top++;
+		}
+		//then take the piece back out
+		int row = placedRow[depth];
+		for (int r = 0; r < 4 && row + r < height; r++) {
+			rows[row+r] = savedRows[depth*4 + r];
+		}
+		System.arraycopy(savedHeights, depth * heights.length, heights, 0, heights.length);
+		hash = savedHash[depth];
+	}
+
+	/**
+	 * Returns the height of the highest column within the window, which is also
+	 * the number of rows of the window holding at least one block
+	 * @return the height of the stack above the sealed rows
+	 */
+	public int stackHeight() {
+		int stack = 0;
+		for (int c = 0; c < heights.length; c++) {
+			if (heights[c] > stack)
+				stack = heights[c];
+		}
+		return stack;
+	}
+
+	/**
+	 * Returns the height of the whole stack, including the sealed rows
+	 * @return the total height of the stack
+	 */
+	public long totalHeight() {
+		return sealedRows + stackHeight();
+	}
+
+	/**
+	 * Seals off every row out of reach, sliding the window up. A column can fall
+	 * past the gap under its top blocks if they are cleared, so its reach is the
+	 * top of the blocks beneath that gap. Nothing deeper than SEAL_DEPTH below the
+	 * lowest column is left in the window. Every column keeps at least its top
+	 * block in the window, and the sealed rows are kept for place to bring back,
+	 * so sealing never changes the game, only how much of it is searched. Only
+	 * valid between committed moves, when nothing is left to undo
+	 * @throws IllegalStateException if there are applied pieces yet to be undone
+	 * @throws java.io.UncheckedIOException if the sealed rows cannot be spilled
+	 */
+	public void seal() {
+		if (depth != 0)
+			throw new IllegalStateException("Cannot seal rows with " + depth + " moves to undo");
+		int lowest = heights[0];
+		for (int c = 1; c < heights.length; c++) {
+			if (heights[c] < lowest)
+				lowest = heights[c];
+		}
+		int limit = Math.max(lowest - SEAL_DEPTH, 0);
+		int floor = lowest;
+		for (int c = 0; c < heights.length && floor > limit; c++) {
+			int bit = 1 << c;
+			int r = heights[c] - 1;
+			//skip the blocks at the top of the column, then the gap beneath them
+			while (r >= limit && (rows[r] & bit) != 0)
+				r--;
+			while (r >= limit && (rows[r] & bit) == 0)
+				r--;
+			if (r + 1 < floor)
+				floor = Math.max(r + 1, limit);
+		}
+		if (floor == 0)
+			return;
+		//keep the sealed rows, then slide the rows still in reach down to the
+		//bottom of the window
+		if (buried != null)
+			buried.add(rows, 0, floor);
+		int stack = stackHeight();
+		System.arraycopy(rows, floor, rows, 0, stack - floor);
+		Arrays.fill(rows, stack - floor, stack, 0);
+		for (int c = 0; c < heights.length; c++) {
+			heights[c] -= floor;
+		}
+		sealedRows += floor;
+		//every row has moved, so hash them all again
+		rehash();
+	}
+
+	/**
+	 * The hash key of a row of the window. An empty row has a key of 0, so rows
+	 * above the stack never change the hash
+	 * @param row the index of the row in the window
+	 * @param bits the blocks of the row
+	 * @return the key
+	 */
+	static long rowKey(int row, int bits) {
+		if (bits == 0)
+			return 0;
+		return TranspositionTable.mix(((long) row << 32 | bits) * 0x9E3779B97F4A7C15L);
+	}
+
+	/*************************************************************************
+	 *                       PRIVATE HELPER METHODS                          *
+	 *************************************************************************/
+
+	/**
+	 * Drops a piece onto the board and clears any completed lines
+	 * @param iden the identity of the piece
+	 * @param rotate the rotation
+	 * @param pos the position, from the left wall
+	 * @param record whether to journal the change for undo
+	 * @return the number of lines cleared
+	 */
+	private int drop(int iden, int rotate, int pos, boolean record) {
+		int orientation = rotate % Pieces.MASKS[iden].length;
+		int[] masks = Pieces.MASKS[iden][orientation];
+		int[] bottoms = Pieces.BOTTOMS[iden][orientation];
+		int pieceWidth = bottoms.length;
+
+		//check the position, fix if necessary. the piece width is its number of columns
+		if (pos > width - pieceWidth)
+			pos = width - pieceWidth;
+
+		//find appropriate height to place, within tetris 'original algorithm' gravity rules.
+		//the piece rests on whichever column it meets first
+		int row = 0;
+		for (int c = 0; c < pieceWidth; c++) {
+			int rest = heights[pos+c] - bottoms[c];
+			if (rest > row)
+				row = rest;
+		}
+		//the stack has reached the top of the board, make room above it
+		int pieceHeight = masks.length;
+		if (row + pieceHeight > height)
+			grow(row + pieceHeight);
+
+		if (record) {
+			journal(row);
+		}
+
+		//finally, place the piece and raise the columns it covers
+		for (int r = 0; r < pieceHeight; r++) {
+			int old = rows[row+r];
+			rows[row+r] = old | (masks[r] << pos);
+			hash ^= rowKey(row + r, old) ^ rowKey(row + r, rows[row+r]);
+		}
+		int[] tops = Pieces.TOPS[iden][orientation];
+		for (int c = 0; c < pieceWidth; c++) {
+			if (row + tops[c] > heights[pos+c])
+				heights[pos+c] = row + tops[c];
+		}
+
+		return clearFullLines(row, pieceHeight, record);
+	}
+
+	/**
+	 * Brings sealed rows back into the bottom of the window until every column
+	 * the window holds no block of meets one again, or there are none left, so
+	 * the floor of the window is never taken for solid ground while rows lie
+	 * beneath it. Sealing leaves every column a block in the window, so only
+	 * clears can empty one, and then only rarely
+	 */
+	private void unseal() {
+		int empty = 0;
+		for (int c = 0; c < heights.length; c++) {
+			if (heights[c] == 0)
+				empty |= 1 << c;
+		}
+		if (empty == 0)
+			return;
+		//take the sealed rows from the top down until they hold a block of every empty column
+		int taken = 0;
+		int found = 0;
+		while (taken < sealedRows && (found & empty) != empty) {
+			found |= buried.fromTop(taken);
+			taken++;
+		}
+		int stack = stackHeight();
+		if (stack + taken > height)
+			grow(stack + taken);
+		System.arraycopy(rows, 0, rows, taken, stack);
+		buried.take(rows, taken);
+		sealedRows -= taken;
+		for (int c = 0; c < heights.length; c++) {
+			if (heights[c] > 0) {
+				heights[c] += taken;
+			} else {
+				int h = taken;
+				while (h > 0 && (rows[h-1] & (1 << c)) == 0)
+					h--;
+				heights[c] = h;
+			}
+		}
+		//every row has moved, so hash them all again
+		rehash();
+	}
+
+	/**
+	 * Enlarges the board to at least the given number of rows, at least doubling
+	 * it so that a rising stack only grows the board a few times
+	 * @param needed the number of rows needed
+	 */
+	private void grow(int needed) {
+		int capacity = Math.max(Math.max(needed, height * 2), 16);
+		rows = Arrays.copyOf(rows, capacity);
+		height = capacity;
+	}
+
+	/**
+	 * Opens a new journal entry, saving the rows a piece at the given row will
+	 * cover and the current column heights
+	 * @param row the row of the bottom of the piece
+	 */
+	private void journal(int row) {
+		if (depth == placedRow.length) {
+			int capacity = depth * 2;
+			placedRow = Arrays.copyOf(placedRow, capacity);
+			savedRows = Arrays.copyOf(savedRows, capacity * 4);
+			savedHeights = Arrays.copyOf(savedHeights, capacity * heights.length);
+			savedHash = Arrays.copyOf(savedHash, capacity);
+			clearedRows = Arrays.copyOf(clearedRows, capacity * 4);
+			clearedCount = Arrays.copyOf(clearedCount, capacity);
+		}
+		placedRow[depth] = row;
+		//rows past the window are empty, and stay so if a later piece grows the board
+		for (int r = 0; r < 4; r++) {
+			savedRows[depth*4 + r] = row + r < height ? rows[row+r] : 0;
+		}
+		System.arraycopy(heights, 0, savedHeights, depth * heights.length, heights.length);
+		clearedCount[depth] = 0;
+		savedHash[depth] = hash;
+		depth++;
+	}
+
+	/**
+	 * Removes every completed row. Only the rows the piece landed in can have
+	 * been completed, so only they are tested. The rows above the lowest one
+	 * removed are then moved down in one pass up to the top of the stack, their
+	 * keys moved in the hash as they go, so a clear costs the height of the
+	 * stack above it rather than of the whole window for every line
+	 * @param row the lowest row the piece landed in
+	 * @param pieceHeight the number of rows the piece covers
+	 * @param record whether to journal the removed rows
+	 * @return the number of lines cleared
+	 */
+	private int clearFullLines(int row, int pieceHeight, boolean record) {
+		int first = row;
+		while (first < row + pieceHeight && rows[first] != fullMask)
+			first++;
+		if (first == row + pieceHeight)
+			return 0;
+
+		//every row above the highest column is empty
+		int top = stackHeight();
+		int cleared = 0;
+		int to = first;
+		for (int from = first; from < top; from++) {
+			int bits = rows[from];
+			hash ^= rowKey(from, bits);
+			if (bits == fullMask) {
+				//journalled as if removed one at a time, the rows above moving down each time
+				if (record) {
+					clearedRows[(depth-1)*4 + cleared] = from - cleared;
+				}
+				cleared++;
+			} else {
+				rows[to] = bits;
+				hash ^= rowKey(to, bits);
+				to++;
+			}
+		}
+		Arrays.fill(rows, to, top, 0);
+		lowerHeights(cleared);
+		if (record) {
+			clearedCount[depth-1] = cleared;
+		}
+		return cleared;
+	}
+
+	/**
+	 * Works the hash out again from every row of the stack
+	 */
+	private void rehash() {
+		long h = 0;
+		int stack = stackHeight();
+		for (int r = 0; r < stack; r++) {
+			h ^= rowKey(r, rows[r]);
+		}
+		hash = h;
+	}
+
+	/**
+	 * Drops every column height after lines have been cleared. Every cleared line
+	 * held a block of every column, so each column falls by at least that many
+	 * rows and then further past any holes uncovered at its top
+	 * @param cleared the number of lines cleared
+	 */
+	private void lowerHeights(int cleared) {
+		for (int c = 0; c < heights.length; c++) {
+			int h = heights[c] - cleared;
+			while (h > 0 && (rows[h-1] & (1 << c)) == 0)
+				h--;
+			heights[c] = h;
+		}
+	}
+}
@@ -0,0 +1,102 @@
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * AI4211 Project
+ * Scores a range of candidate moves against a shared game state, splitting the
+ * range across a ForkJoin pool. Every leaf plays on its own copy of the board,
+ * so the shared board is only ever read
+ */
+public class CandidateTask extends RecursiveTask<Long> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The number of candidates scored by a single task without splitting further
+	 */
+	private final static int LEAF_SIZE = 8;
+
+	/**
+	 * The game state before the move
+	 */
+	private final Board board;
+
+	/**
+	 * Judges the game state after each move
+	 */
+	private final Evaluator evaluator;
+
+	/**
+	 * The identity, rotation and position of every candidate, in the order they
+	 * would be tried one after another
+	 */
+	private final int[] idens, rotates, positions;
+
+	/**
+	 * The range of candidates for this task, from inclusive and to exclusive
+	 */
+	private final int from, to;
+
+	/**
+	 * Creates a task to score a range of candidates
+	 * @param board the game state before the move, not changed by the task
+	 * @param evaluator judges the game state after each move
+	 * @param idens the identity of every candidate
+	 * @param rotates the rotation of every candidate
+	 * @param positions the position of every candidate
+	 * @param from the first candidate to score
+	 * @param to one past the last candidate to score
+	 */
+	public CandidateTask(Board board, Evaluator evaluator, int[] idens, int[] rotates, int[] positions, int from, int to) {
+		this.board = board;
+		this.evaluator = evaluator;
+		this.idens = idens;
+		this.rotates = rotates;
+		this.positions = positions;
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * Packs a score and a candidate index so that the larger of two packed values
+	 * is the higher score, or the earlier candidate if the scores are equal. This
+	 * is the same choice as trying the candidates in order and keeping one only
+	 * if it scores strictly higher
+	 * @param score the score of the candidate
+	 * @param index the index of the candidate
+	 * @return the packed value
+	 */
+	static long pack(int score, int index) {
+		return ((long) score << 32) | (Integer.MAX_VALUE - index);
+	}
+
+	/**
+	 * Returns the candidate index of a packed value
+	 * @param packed the packed score and index
+	 * @return the index of the candidate
+	 */
+	static int index(long packed) {
+		return Integer.MAX_VALUE - (int) packed;
+	}
+
+	@Override
+	protected Long compute() {
+		if (to - from > LEAF_SIZE) {
+			int middle = (from + to) >>> 1;
+			CandidateTask left = new CandidateTask(board, evaluator, idens, rotates, positions, from, middle);
+			CandidateTask right = new CandidateTask(board, evaluator, idens, rotates, positions, middle, to);
+			left.fork();
+			long best = right.compute();
+			return Math.max(left.join(), best);
+		}
+
+		//score this range on a private copy of the board
+		Board scratch = board.copy();
+		long best = Long.MIN_VALUE;
+		for (int i = from; i < to; i++) {
+			scratch.apply(idens[i], rotates[i], positions[i]);
+			best = Math.max(best, pack(evaluator.evaluate(scratch), i));
+			scratch.undo();
+		}
+		return best;
+	}
+}
@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.CRC32;
+
+/**
+ * AI4211 Project
+ * A snapshot of a game being streamed, holding everything needed to carry it on
+ * exactly where it was taken: the board, the buffer, the pieces read ahead and
+ * how far into the input and output the game had got. A snapshot is taken by
+ * copying the game into one reused with take, which costs the window of the
+ * board and the sealed rows held in memory, so it can be written out by
+ * another thread while the game goes on.
+ *
+ * A snapshot is the 4 byte magic "TSC3", the settings the game was played with,
+ * the input offset in pieces and the output offset in bytes as longs, the file
+ * the sealed rows are spilled to as a count then its UTF-8 name, empty if none,
+ * the board as written by Board.save, the buffer and the pieces read ahead each
+ * as a count then the pieces, and the CRC32 of all of it as an int, all
+ * big-endian. The sealed rows spilled are only referred to, as the file they
+ * are in is only ever appended to
+ */
+public class Checkpoint {
+
+	/**
+	 * The magic bytes opening a snapshot
+	 */
+	final static byte[] MAGIC = {'T', 'S', 'C', '3'};
+
+	/**
+	 * The settings the game was played with, the first of them the width of the
+	 * board. A game only carries on the same way under the same settings
+	 */
+	final int[] settings;
+
+	/**
+	 * The number of pieces read from the input
+	 */
+	long inputOffset;
+
+	/**
+	 * The number of bytes of the solution written to the output
+	 */
+	long outputOffset;
+
+	/**
+	 * The board
+	 */
+	final Board board;
+
+	/**
+	 * The pieces in the buffer
+	 */
+	final int[] buffer;
+
+	/**
+	 * The pieces read from the input but not yet played, the incoming piece first
+	 */
+	final int[] ahead;
+
+	/**
+	 * The number of pieces read ahead
+	 */
+	int known;
+
+	/**
+	 * Creates an empty snapshot to take a game into
+	 * @param settings the settings the game is played with, the width of the board first
+	 * @param slots the number of pieces the buffer holds
+	 * @param depth the most pieces read ahead
+	 */
+	public Checkpoint(int[] settings, int slots, int depth) {
+		this(settings, 0, 0, new Board(TetrisSolver.GRID_HEIGHT, settings[0]), new int[slots], new int[depth]);
+	}
+
+	/**
+	 * Creates a snapshot read from a file
+	 * @param settings the settings the game was played with
+	 * @param inputOffset the number of pieces read from the input
+	 * @param outputOffset the number of bytes of the solution written
+	 * @param board the board
+	 * @param buffer the pieces in the buffer
+	 * @param ahead the pieces read ahead
+	 */
+	private Checkpoint(int[] settings, long inputOffset, long outputOffset, Board board, int[] buffer, int[] ahead) {
+		this.settings = settings;
+		this.inputOffset = inputOffset;
+		this.outputOffset = outputOffset;
+		this.board = board;
+		this.buffer = buffer;
+		this.ahead = ahead;
+		this.known = ahead.length;
+	}
+
+	/**
+	 * Copies a game into this snapshot, between committed moves. Reuses the
+	 * memory of the snapshot if there is room
+	 * @param board the board
+	 * @param buffer the pieces in the buffer
+	 * @param ahead the pieces read ahead, the incoming piece first
+	 * @param known the number of pieces read ahead
+	 * @param inputOffset the number of pieces read from the input
+	 * @param outputOffset the number of bytes of the solution written
+	 */
+	void take(Board board, int[] buffer, int[] ahead, int known, long inputOffset, long outputOffset) {
+		this.board.snapshotFrom(board);
+		System.arraycopy(buffer, 0, this.buffer, 0, this.buffer.length);
+		System.arraycopy(ahead, 0, this.ahead, 0, known);
+		this.known = known;
+		this.inputOffset = inputOffset;
+		this.outputOffset = outputOffset;
+	}
+
+	/**
+	 * Returns the number of bytes the snapshot takes
+	 * @return the size of the snapshot
+	 */
+	int bytes() {
+		return MAGIC.length + 4 + settings.length * 4 + 8 + 8 + 4 + rowsName().length + board.savedBytes()
+			+ 4 + buffer.length * 4 + 4 + known * 4 + 4;
+	}
+
+	/**
+	 * Writes the snapshot to a buffer
+	 * @param out the buffer, with at least bytes left, and backed by an array
+	 */
+	void save(ByteBuffer out) {
+		int start = out.position();
+		out.put(MAGIC);
+		out.putInt(settings.length);
+		for (int setting : settings) {
+			out.putInt(setting);
+		}
+		out.putLong(inputOffset);
+		out.putLong(outputOffset);
+		byte[] rows = rowsName();
+		out.putInt(rows.length);
+		out.put(rows);
+		board.save(out);
+		out.putInt(buffer.length);
+		for (int piece : buffer) {
+			out.putInt(piece);
+		}
+		out.putInt(known);
+		for (int i = 0; i < known; i++) {
+			out.putInt(ahead[i]);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(out.array(), out.arrayOffset() + start, out.position() - start);
+		out.putInt((int) crc.getValue());
+	}
+
+	/**
+	 * Reads a snapshot from a file
+	 * @param path the file
+	 * @return the snapshot
+	 * @throws IOException if the file cannot be read or is not a valid snapshot
+	 */
+	static Checkpoint load(Path path) throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+		if (in.remaining() < MAGIC.length + 4)
+			throw new IOException(path + " is not a checkpoint");
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (in.get() != MAGIC[i])
+				throw new IOException(path + " is not a checkpoint");
+		}
+		CRC32 crc = new CRC32();
+		crc.update(in.array(), 0, in.limit() - 4);
+		if ((int) crc.getValue() != in.getInt(in.limit() - 4))
+			throw new IOException(path + " fails its checksum");
+		in.limit(in.limit() - 4);
+		try {
+			int[] settings = readPieces(in, false);
+			long inputOffset = in.getLong();
+			long outputOffset = in.getLong();
+			int name = in.getInt();
+			if (settings.length == 0 || name < 0 || name > in.remaining())
+				throw new IOException(path + " is not a valid checkpoint");
+			byte[] rows = new byte[name];
+			in.get(rows);
+			Board board = Board.load(in, settings[0], name == 0 ? null : Paths.get(new String(rows, StandardCharsets.UTF_8)));
+			int[] buffer = readPieces(in, true);
+			int[] ahead = readPieces(in, true);
+			if (inputOffset < 0 || outputOffset < 0 || buffer.length > TetrisSolver.MAX_BUFFER_SIZE || in.hasRemaining())
+				throw new IOException(path + " is not a valid checkpoint");
+			return new Checkpoint(settings, inputOffset, outputOffset, board, buffer, ahead);
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException(path + " is not a valid checkpoint: " + e.getMessage());
+		}
+	}
+
+	/*************************************************************************
+	 *                       PRIVATE HELPER METHODS                          *
+	 *************************************************************************/
+
+	/**
+	 * Returns the name of the file the sealed rows of the board are spilled to
+	 * @return the absolute name in UTF-8, empty if spilled to a temporary file
+	 */
+	private byte[] rowsName() {
+		Path rows = board.buried.path();
+		return rows == null ? new byte[0] : rows.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads a count followed by that many ints
+	 * @param in the buffer
+	 * @param pieces whether every int must be a piece, 1 - 7
+	 * @return the ints
+	 * @throws IllegalArgumentException if the count or a piece is not valid
+	 */
+	private static int[] readPieces(ByteBuffer in, boolean pieces) {
+		int n = in.getInt();
+		if (n < 0 || n > in.remaining() / 4)
+			throw new IllegalArgumentException("The checkpoint holds a count that is not valid");
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = in.getInt();
+			if (pieces && (values[i] < 1 || values[i] > 7))
+				throw new IllegalArgumentException("The checkpoint holds a piece that is not valid");
+		}
+		return values;
+	}
+}
@@ -0,0 +1,148 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * AI4211 Project
+ * Writes snapshots of a game to a file on a background thread, so that the game
+ * never waits on the disk. A snapshot is taken into one reusable Checkpoint,
+ * which is only handed out while no write is in progress; a snapshot due while
+ * the last is still being written is simply skipped. The game only copies
+ * itself into the snapshot, and the background thread encodes it, sums it and
+ * writes it.
+ *
+ * Each snapshot is written to a temporary file beside the checkpoint and moved
+ * over it, so the checkpoint always holds a whole snapshot. The solution and
+ * the sealed rows spilled are forced to storage first, so they always hold
+ * every move and row the snapshot counts
+ */
+public class CheckpointWriter implements Closeable {
+
+	/**
+	 * The checkpoint file
+	 */
+	private final Path file;
+
+	/**
+	 * The temporary file each snapshot is written to first
+	 */
+	private final Path temp;
+
+	/**
+	 * Runs the writes, on one background thread
+	 */
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(task -> {
+		Thread thread = new Thread(task, "checkpoint");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * The snapshot being taken or written
+	 */
+	private final Checkpoint snapshot;
+
+	/**
+	 * The snapshot encoded, reused by every write
+	 */
+	private ByteBuffer bytes = ByteBuffer.allocate(1024);
+
+	/**
+	 * The write in progress, or null
+	 */
+	private Future<?> pending = null;
+
+	/**
+	 * The first write that failed, or null
+	 */
+	private volatile IOException failure = null;
+
+	/**
+	 * Creates a checkpoint writer
+	 * @param file the checkpoint file. If it does exist, every snapshot rewrites it
+	 * @param snapshot the snapshot to take the game into, reused by every snapshot
+	 */
+	public CheckpointWriter(Path file, Checkpoint snapshot) {
+		this.file = file;
+		this.temp = file.resolveSibling(file.getFileName() + ".tmp");
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Starts a snapshot, if the last one has been written
+	 * @return the snapshot to take the game into, or null if the last snapshot
+	 * 	is still being written
+	 * @throws IOException if an earlier snapshot failed to be written
+	 */
+	public Checkpoint begin() throws IOException {
+		if (failure != null)
+			throw failure;
+		if (pending != null && !pending.isDone())
+			return null;
+		return snapshot;
+	}
+
+	/**
+	 * Writes the snapshot started by begin in the background
+	 * @param solution the solution the snapshot counts the moves of, forced to
+	 * 	storage before the snapshot is written
+	 * @param sealed the sealed rows of the game, forced to storage before the
+	 * 	snapshot is written
+	 */
+	public void commit(SolutionWriter solution, SealedRows sealed) {
+		pending = writer.submit(() -> {
+			try {
+				solution.force();
+				sealed.force();
+				//only as large as the window and the rows held in memory, so it soon stops growing
+				int size = snapshot.bytes();
+				if (bytes.capacity() < size) {
+					bytes = ByteBuffer.allocate(size);
+				}
+				bytes.clear();
+				snapshot.save(bytes);
+				bytes.flip();
+				try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+					while (bytes.hasRemaining()) {
+						channel.write(bytes);
+					}
+					channel.force(true);
+				}
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				if (failure == null)
+					failure = e;
+			}
+		});
+	}
+
+	/**
+	 * Waits for the last snapshot to be written and stops the background thread
+	 * @throws IOException if a snapshot failed to be written
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (pending != null)
+				pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to write checkpoint", e.getCause());
+		} finally {
+			writer.shutdown();
+		}
+		if (failure != null)
+			throw failure;
+	}
+}
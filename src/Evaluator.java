@@ -0,0 +1,373 @@
+/**
+ * AI4211 Project
+ * Judges a tetris game state as a weighted sum of features of its board, where
+ * a high score relates to a desired game state. Every feature is worked out in
+ * one pass down the rows of the stack, a whole row of columns at a time, with
+ * the rest read off the column heights:
+ *
+ * 	AGGREGATE_HEIGHT   the sum of the column heights
+ * 	MAX_HEIGHT         the height of the highest column
+ * 	BUMPINESS          the sum of the height differences of neighbouring columns
+ * 	HOLES              the empty cells with a block somewhere above them
+ * 	COVERED_DEPTH      the sum of how far each hole lies below its column top
+ * 	WELLS              the sum of how far each column lies below both neighbours,
+ * 	                   the walls counting as high
+ * 	ROW_TRANSITIONS    the filled and empty cells side by side, walls filled
+ * 	COLUMN_TRANSITIONS the filled and empty cells one above the other, floor filled
+ *
+ * Heights are taken within the window of the board, as rows sealed below it are
+ * the same for every move being judged. The legacy weights only count the
+ * maximum height, which was all the original scoreGrid ended up using, and are
+ * scored from the column heights alone.
+ *
+ * A placement can also be bounded without being played. Unless it clears a
+ * line, every feature but COVERED_DEPTH follows exactly from the column heights
+ * and the few rows the piece lands in, and COVERED_DEPTH can only grow, so the
+ * bound is the exact score whenever that weight is 0
+ */
+public class Evaluator {
+
+	/**
+	 * The index of each feature in a weight vector
+	 */
+	final static int AGGREGATE_HEIGHT = 0, MAX_HEIGHT = 1, BUMPINESS = 2, HOLES = 3,
+		COVERED_DEPTH = 4, WELLS = 5, ROW_TRANSITIONS = 6, COLUMN_TRANSITIONS = 7;
+
+	/**
+	 * The number of features
+	 */
+	final static int FEATURES = 8;
+
+	/**
+	 * The names of the features, in weight vector order
+	 */
+	final static String[] NAMES = {"aggregateHeight", "maxHeight", "bumpiness", "holes",
+		"coveredDepth", "wells", "rowTransitions", "columnTransitions"};
+
+	/**
+	 * The weights of the original solver, scoring only the maximum height
+	 */
+	final static int[] LEGACY_WEIGHTS = {0, -380, 0, 0, 0, 0, 0, 0};
+
+	/**
+	 * The weight of each feature
+	 */
+	private final int[] weights;
+
+	/**
+	 * Whether every weight but MAX_HEIGHT is 0, so only the height need be found
+	 */
+	private final boolean heightOnly;
+
+	/**
+	 * Whether placements can be bounded, which needs COVERED_DEPTH to weigh
+	 * against the score or not at all
+	 */
+	private final boolean bounded;
+
+	/**
+	 * The cache of judged game states, or null
+	 */
+	private final TranspositionTable table;
+
+	/**
+	 * Salts the board hash into a table key, so that scores under different
+	 * weights never mix, nor with any other use of the table
+	 */
+	private final long salt;
+
+	/**
+	 * Creates an evaluator
+	 * @param weights the weight of each feature, FEATURES of them
+	 * @param table the cache of judged game states, or null
+	 */
+	public Evaluator(int[] weights, TranspositionTable table) {
+		if (weights.length != FEATURES)
+			throw new IllegalArgumentException("An evaluator needs " + FEATURES + " weights, not " + weights.length);
+		this.weights = weights.clone();
+		this.table = table;
+		boolean only = true;
+		long s = 0x5C0E5C0E5C0E5C0EL;
+		for (int f = 0; f < FEATURES; f++) {
+			if (f != MAX_HEIGHT && weights[f] != 0)
+				only = false;
+			s = TranspositionTable.mix(s + weights[f]);
+		}
+		heightOnly = only;
+		bounded = weights[COVERED_DEPTH] <= 0;
+		salt = s;
+	}
+
+	/**
+	 * Scores a game state, looking it up in the transposition table first if
+	 * there is one. The score only depends on the rows of the board, so the
+	 * board's hash is its key. Safe to call from many threads at once
+	 * @param board the game state to judge
+	 * @return the score of the game state
+	 */
+	public int evaluate(Board board) {
+		if (table == null) {
+			return score(board);
+		}
+		long key = board.hash ^ salt;
+		long score = table.get(key, Long.MIN_VALUE);
+		if (score == Long.MIN_VALUE) {
+			score = score(board);
+			table.put(key, score);
+		}
+		return (int) score;
+	}
+
+	/**
+	 * Scores a game state, without the table
+	 * @param board the game state to judge
+	 * @return the weighted sum of its features
+	 */
+	public int score(Board board) {
+		if (heightOnly) {
+			return board.stackHeight() * weights[MAX_HEIGHT];
+		}
+		return extract(board, null);
+	}
+
+	/**
+	 * Works out every feature of a game state
+	 * @param board the game state
+	 * @param features filled with the value of each feature, FEATURES of them
+	 */
+	public void features(Board board, int[] features) {
+		extract(board, features);
+	}
+
+	/**
+	 * Works out what bound needs of a game state, once before bounding any
+	 * number of placements on it
+	 * @param board the game state
+	 * @param base filled with the value of each feature, FEATURES of them
+	 */
+	void prepare(Board board, int[] base) {
+		if (!heightOnly)
+			extract(board, base);
+	}
+
+	/**
+	 * Returns a score no placement of a piece can beat, without placing it. The
+	 * board is not changed
+	 * @param board the game state, as it was when prepared
+	 * @param base the features of the board, from prepare
+	 * @param iden the identity of the piece
+	 * @param rotate the rotation, one of the distinct rotations
+	 * @param pos the position, at which the rotation fits
+	 * @return at least the score of the board after the piece is placed, or
+	 * 	Integer.MAX_VALUE if the placement clears a line or cannot be bounded
+	 */
+	int bound(Board board, int[] base, int iden, int rotate, int pos) {
+		if (!bounded)
+			return Integer.MAX_VALUE;
+		int[] masks = Pieces.MASKS[iden][rotate];
+		int[] bottoms = Pieces.BOTTOMS[iden][rotate];
+		int[] tops = Pieces.TOPS[iden][rotate];
+		int[] heights = board.heights;
+		int width = board.width;
+
+		//the row the piece lands on, as Board.place finds it
+		int row = 0;
+		for (int c = 0; c < bottoms.length; c++) {
+			int rest = heights[pos+c] - bottoms[c];
+			if (rest > row)
+				row = rest;
+		}
+		//a line cleared moves every row above it, so is not bounded
+		for (int r = 0; r < masks.length; r++) {
+			if ((rowAt(board, row + r) | masks[r] << pos) == board.fullMask)
+				return Integer.MAX_VALUE;
+		}
+
+		//the column features, from the heights after the piece
+		int aggregate = 0, max = 0, bumpiness = 0, wells = 0;
+		int left = Integer.MAX_VALUE;
+		int h = landed(heights, 0, pos, row, tops);
+		for (int c = 0; c < width; c++) {
+			int right = c == width - 1 ? Integer.MAX_VALUE : landed(heights, c + 1, pos, row, tops);
+			aggregate += h;
+			if (h > max)
+				max = h;
+			if (c > 0)
+				bumpiness += Math.abs(h - left);
+			int well = Math.min(left, right) - h;
+			if (well > 0)
+				wells += well;
+			left = h;
+			h = right;
+		}
+		if (heightOnly)
+			return max * weights[MAX_HEIGHT];
+
+		//the gaps left under the piece become holes, as deep as the piece is above
+		//them. the holes already in those columns only get deeper
+		int holes = base[HOLES], depth = base[COVERED_DEPTH];
+		for (int c = 0; c < bottoms.length; c++) {
+			int gaps = row + bottoms[c] - heights[pos+c];
+			holes += gaps;
+			depth += gaps * (row + tops[c] - 1 - heights[pos+c]) - gaps * (gaps - 1) / 2;
+		}
+
+		//only the rows the piece lands in change, and the pairs of rows they are in
+		int rowTransitions = base[ROW_TRANSITIONS];
+		int columnTransitions = base[COLUMN_TRANSITIONS];
+		int wall = 1 << width;
+		int oldMax = base[MAX_HEIGHT];
+		for (int r = 0; r < masks.length; r++) {
+			int old = rowAt(board, row + r);
+			int now = old | masks[r] << pos;
+			rowTransitions += Integer.bitCount((now | wall) ^ ((now << 1) | 1));
+			if (row + r < oldMax)
+				rowTransitions -= Integer.bitCount((old | wall) ^ ((old << 1) | 1));
+		}
+		for (int r = row - 1; r < row + masks.length; r++) {
+			int lower = r < 0 ? board.fullMask : rowAt(board, r);
+			int upper = rowAt(board, r + 1);
+			columnTransitions -= Integer.bitCount(lower ^ upper);
+			if (r >= row)
+				lower |= masks[r - row] << pos;
+			if (r + 1 < row + masks.length)
+				upper |= masks[r + 1 - row] << pos;
+			columnTransitions += Integer.bitCount(lower ^ upper);
+		}
+
+		return aggregate * weights[AGGREGATE_HEIGHT]
+			+ max * weights[MAX_HEIGHT]
+			+ bumpiness * weights[BUMPINESS]
+			+ holes * weights[HOLES]
+			+ depth * weights[COVERED_DEPTH]
+			+ wells * weights[WELLS]
+			+ rowTransitions * weights[ROW_TRANSITIONS]
+			+ columnTransitions * weights[COLUMN_TRANSITIONS];
+	}
+
+	/**
+	 * Returns the weights in use
+	 * @return a copy of the weights
+	 */
+	public int[] weights() {
+		return weights.clone();
+	}
+
+	/**
+	 * Parses a weight vector written as FEATURES comma separated integers
+	 * @param text the weights
+	 * @return the weights
+	 * @throws IllegalArgumentException if there are not FEATURES integers
+	 */
+	static int[] parseWeights(String text) {
+		String[] parts = text.split(",");
+		if (parts.length != FEATURES)
+			throw new IllegalArgumentException("Expected " + FEATURES + " weights, not " + parts.length);
+		int[] weights = new int[FEATURES];
+		for (int f = 0; f < FEATURES; f++) {
+			weights[f] = Integer.parseInt(parts[f].trim());
+		}
+		return weights;
+	}
+
+	/*************************************************************************
+	 *                       PRIVATE HELPER METHODS                          *
+	 *************************************************************************/
+
+	/**
+	 * Returns a row of a board, empty above the window
+	 * @param board the board
+	 * @param r the row
+	 * @return the row's cells, one bit per column
+	 */
+	private static int rowAt(Board board, int r) {
+		return r < board.height ? board.rows[r] : 0;
+	}
+
+	/**
+	 * Returns the height of a column once a piece has landed
+	 * @param heights the column heights before the piece
+	 * @param c the column
+	 * @param pos the leftmost column of the piece
+	 * @param row the row the piece lands on
+	 * @param tops one above the highest row of each column of the piece
+	 * @return the height of the column
+	 */
+	private static int landed(int[] heights, int c, int pos, int row, int[] tops) {
+		return c >= pos && c < pos + tops.length ? row + tops[c - pos] : heights[c];
+	}
+
+	/**
+	 * Works out every feature in one pass down the stack and weighs them up
+	 * @param board the game state
+	 * @param features filled with the value of each feature if not null
+	 * @return the weighted sum of the features
+	 */
+	private int extract(Board board, int[] features) {
+		int[] rows = board.rows;
+		int[] heights = board.heights;
+		int width = board.width;
+		int full = board.fullMask;
+		int wall = 1 << width;
+
+		//the column features, from the heights
+		int aggregate = 0, max = 0, bumpiness = 0, wells = 0;
+		for (int c = 0; c < width; c++) {
+			int h = heights[c];
+			aggregate += h;
+			if (h > max)
+				max = h;
+			int left = c == 0 ? Integer.MAX_VALUE : heights[c-1];
+			int right = c == width - 1 ? Integer.MAX_VALUE : heights[c+1];
+			if (c > 0)
+				bumpiness += Math.abs(h - left);
+			int well = Math.min(left, right) - h;
+			if (well > 0)
+				wells += well;
+		}
+
+		//the cell features, down the stack a row at a time. above is every column
+		//with a block somewhere above the current row
+		int holes = 0, depth = 0, rowTransitions = 0, columnTransitions = 0;
+		int above = 0;
+		int upper = 0;
+		for (int r = max - 1; r >= 0; r--) {
+			int row = rows[r];
+			//empty cells under a block
+			int covered = above & ~row & full;
+			if (covered != 0) {
+				holes += Integer.bitCount(covered);
+				for (int bits = covered; bits != 0; bits &= bits - 1) {
+					depth += heights[Integer.numberOfTrailingZeros(bits)] - 1 - r;
+				}
+			}
+			//neighbouring cells that differ, with a filled wall either side
+			rowTransitions += Integer.bitCount((row | wall) ^ ((row << 1) | 1));
+			//cells that differ from the cell above, the row above the stack empty
+			columnTransitions += Integer.bitCount(row ^ upper);
+			above |= row;
+			upper = row;
+		}
+		//and the bottom row against the floor
+		columnTransitions += Integer.bitCount(upper ^ full);
+
+		if (features != null) {
+			features[AGGREGATE_HEIGHT] = aggregate;
+			features[MAX_HEIGHT] = max;
+			features[BUMPINESS] = bumpiness;
+			features[HOLES] = holes;
+			features[COVERED_DEPTH] = depth;
+			features[WELLS] = wells;
+			features[ROW_TRANSITIONS] = rowTransitions;
+			features[COLUMN_TRANSITIONS] = columnTransitions;
+		}
+		return aggregate * weights[AGGREGATE_HEIGHT]
+			+ max * weights[MAX_HEIGHT]
+			+ bumpiness * weights[BUMPINESS]
+			+ holes * weights[HOLES]
+			+ depth * weights[COVERED_DEPTH]
+			+ wells * weights[WELLS]
+			+ rowTransitions * weights[ROW_TRANSITIONS]
+			+ columnTransitions * weights[COLUMN_TRANSITIONS];
+	}
+}
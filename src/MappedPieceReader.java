@@ -0,0 +1,127 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * AI4211 Project
+ * Streams pieces from a text input file by memory-mapping it, a window of
+ * WINDOW_BYTES at a time, and scanning the raw bytes for the digits '1' to '7'.
+ * Nothing is decoded or copied, so files of any size, past 2GB, are read at the
+ * speed of the page cache. A window is unmapped by the garbage collector once
+ * the next one replaces it
+ */
+public class MappedPieceReader implements PieceSource {
+
+	/**
+	 * The most bytes mapped at once
+	 */
+	private final static long WINDOW_BYTES = 64L * 1024 * 1024;
+
+	/**
+	 * The file being read
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The size of the file in bytes
+	 */
+	private final long size;
+
+	/**
+	 * The position in the file of the current window
+	 */
+	private long start = 0;
+
+	/**
+	 * The current window of the file, null before the first is mapped
+	 */
+	private MappedByteBuffer window = null;
+
+	/**
+	 * The index of the next unread byte in the window
+	 */
+	private int next = 0;
+
+	/**
+	 * The number of bytes in the window
+	 */
+	private int limit = 0;
+
+	/**
+	 * Opens a reader over a file
+	 * @param path the file
+	 * @throws IOException if the file does not exist or cannot be opened
+	 */
+	public MappedPieceReader(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		size = channel.size();
+	}
+
+	/**
+	 * Returns the size of the file, an upper bound on the number of pieces
+	 * @return the size in bytes
+	 */
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public int nextPiece() throws IOException {
+		while (next < limit || advance()) {
+			byte current = window.get(next++);
+			if (current >= '1' && current <= '7') {
+				return current - '0';
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int read(int[] pieces, int offset, int length) throws IOException {
+		int n = 0;
+		while (n < length && (next < limit || advance())) {
+			//scan the rest of the window, or until the chunk is full
+			MappedByteBuffer bytes = window;
+			int i = next;
+			int end = limit;
+			int at = offset + n;
+			int last = offset + length;
+			while (i < end && at < last) {
+				byte current = bytes.get(i++);
+				if (current >= '1' && current <= '7') {
+					pieces[at++] = current - '0';
+				}
+			}
+			next = i;
+			n = at - offset;
+		}
+		return n == 0 && length > 0 ? -1 : n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+
+	/*************************************************************************
+	 *                       PRIVATE HELPER METHODS                          *
+	 *************************************************************************/
+
+	/**
+	 * Maps the window after the current one
+	 * @return false if the end of the file has been reached
+	 * @throws IOException if the file cannot be mapped
+	 */
+	private boolean advance() throws IOException {
+		start += limit;
+		if (start >= size)
+			return false;
+		limit = (int) Math.min(WINDOW_BYTES, size - start);
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, limit);
+		next = 0;
+		return true;
+	}
+}
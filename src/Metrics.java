@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * AI4211 Project
+ * Counters and a latency histogram for one game, filled in move by move while
+ * a solver plays. A solver without metrics skips every call here, so nothing
+ * is paid in the hot loop unless they are asked for. Each move is sent to
+ * Flight Recorder as a MoveEvent by the solver itself, with or without these.
+ *
+ * The histogram keeps 8 buckets for every power of two of nanoseconds, so a
+ * percentile is exact to within 12.5%. The height of the stack is sampled at
+ * most SAMPLES times, the gap between samples doubling whenever they fill
+ */
+public class Metrics {
+
+	/**
+	 * The most height samples kept
+	 */
+	private final static int SAMPLES = 1024;
+
+	/**
+	 * The number of histogram buckets, enough for any long
+	 */
+	private final static int BUCKETS = 16 + 60 * 8;
+
+	/**
+	 * The percentiles reported
+	 */
+	private final static double[] PERCENTILES = {50, 90, 99, 99.9};
+
+	/**
+	 * The number of moves played, and of those decided by scoring candidates
+	 */
+	private long moves = 0, decisions = 0;
+
+	/**
+	 * The number of candidate moves scored
+	 */
+	private long candidates = 0;
+
+	/**
+	 * The number of moves that played a buffer piece in place of the incoming one
+	 */
+	private long swaps = 0;
+
+	/**
+	 * The number of lines cleared
+	 */
+	private long lines = 0;
+
+	/**
+	 * The number of moves clearing each number of lines
+	 */
+	private final long[] clears = new long[5];
+
+	/**
+	 * The total and slowest time taken to decide a move
+	 */
+	private long decideNanos = 0, slowestNanos = 0;
+
+	/**
+	 * The number of decisions taking each range of times, see bucket
+	 */
+	private final long[] latencies = new long[BUCKETS];
+
+	/**
+	 * The highest and the last height of the whole stack
+	 */
+	private long maxHeight = 0, height = 0;
+
+	/**
+	 * The height of the stack after every sampleEvery moves
+	 */
+	private final long[] heightSamples = new long[SAMPLES];
+
+	/**
+	 * The number of height samples kept
+	 */
+	private int sampleCount = 0;
+
+	/**
+	 * The number of moves between height samples
+	 */
+	private long sampleEvery = 1;
+
+	/**
+	 * Records how the next move was decided
+	 * @param nanos the time taken to decide it
+	 * @param scored the number of candidate moves scored
+	 * @param swapped whether it plays a buffer piece in place of the incoming piece
+	 */
+	public void decided(long nanos, int scored, boolean swapped) {
+		decisions++;
+		candidates += scored;
+		decideNanos += nanos;
+		if (nanos > slowestNanos)
+			slowestNanos = nanos;
+		latencies[bucket(nanos)]++;
+		if (swapped)
+			swaps++;
+	}
+
+	/**
+	 * Records a move once it has been placed
+	 * @param cleared the number of lines it cleared
+	 * @param stack the height of the whole stack after it
+	 */
+	public void placed(int cleared, long stack) {
+		lines += cleared;
+		clears[cleared]++;
+		height = stack;
+		if (stack > maxHeight)
+			maxHeight = stack;
+		if (moves % sampleEvery == 0) {
+			if (sampleCount == SAMPLES) {
+				//full, so keep every other sample and sample half as often
+				for (int i = 0; i < SAMPLES / 2; i++) {
+					heightSamples[i] = heightSamples[i*2];
+				}
+				sampleCount = SAMPLES / 2;
+				sampleEvery *= 2;
+			}
+			if (moves % sampleEvery == 0)
+				heightSamples[sampleCount++] = stack;
+		}
+		moves++;
+	}
+
+	/**
+	 * Returns the decision time below which a given percent of decisions fell,
+	 * to within the width of a histogram bucket
+	 * @param percent the percentile
+	 * @return the upper bound of its bucket in nanoseconds, 0 if nothing was decided
+	 */
+	public long percentile(double percent) {
+		long rank = (long) Math.ceil(decisions * percent / 100);
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += latencies[b];
+			if (seen >= rank && seen > 0)
+				return Math.min(upperBound(b), slowestNanos);
+		}
+		return 0;
+	}
+
+	/**
+	 * Writes every counter, the percentiles and the sampled heights to a file,
+	 * as JSON if its name ends in .json and as CSV otherwise
+	 * @param file the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(Path file) throws IOException {
+		boolean json = file.getFileName().toString().endsWith(".json");
+		try (Writer out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+			String[] names = names();
+			long[] values = values();
+			if (json) {
+				out.write("{\n");
+				for (int i = 0; i < names.length; i++) {
+					out.write("  \"" + names[i] + "\": " + values[i] + ",\n");
+				}
+				out.write("  \"sampleEvery\": " + sampleEvery + ",\n  \"heights\": [");
+				for (int i = 0; i < sampleCount; i++) {
+					out.write((i == 0 ? "" : ", ") + heightSamples[i]);
+				}
+				out.write("]\n}\n");
+			} else {
+				out.write("metric,value\n");
+				for (int i = 0; i < names.length; i++) {
+					out.write(names[i] + "," + values[i] + "\n");
+				}
+				out.write("\nmove,height\n");
+				for (int i = 0; i < sampleCount; i++) {
+					out.write(i * sampleEvery + "," + heightSamples[i] + "\n");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a one line summary of the metrics
+	 * @return the summary
+	 */
+	@Override
+	public String toString() {
+		return String.format("metrics: %d moves, %d candidates, %d lines, %d swaps, height %d (max %d), decide p50 %dns p99 %dns max %dns",
+			moves, candidates, lines, swaps, height, maxHeight, percentile(50), percentile(99), slowestNanos);
+	}
+
+	/*************************************************************************
+	 *                       PRIVATE HELPER METHODS                          *
+	 *************************************************************************/
+
+	/**
+	 * Returns the names of the values written by write
+	 * @return the names
+	 */
+	private String[] names() {
+		String[] names = new String[11 + clears.length - 1 + PERCENTILES.length];
+		int i = 0;
+		for (String name : new String[] {"moves", "decisions", "candidates", "swaps", "lines",
+				"height", "maxHeight", "decideNanos", "meanNanos", "maxNanos", "candidatesPerMove"}) {
+			names[i++] = name;
+		}
+		for (int n = 1; n < clears.length; n++) {
+			names[i++] = "clears" + n;
+		}
+		for (double p : PERCENTILES) {
+			names[i++] = "p" + (p == (long) p ? Long.toString((long) p) : Double.toString(p).replace('.', '_')) + "Nanos";
+		}
+		return names;
+	}
+
+	/**
+	 * Returns the values written by write, in the order of names
+	 * @return the values
+	 */
+	private long[] values() {
+		long[] values = new long[names().length];
+		int i = 0;
+		values[i++] = moves;
+		values[i++] = decisions;
+		values[i++] = candidates;
+		values[i++] = swaps;
+		values[i++] = lines;
+		values[i++] = height;
+		values[i++] = maxHeight;
+		values[i++] = decideNanos;
+		values[i++] = decisions == 0 ? 0 : decideNanos / decisions;
+		values[i++] = slowestNanos;
+		values[i++] = decisions == 0 ? 0 : candidates / decisions;
+		for (int n = 1; n < clears.length; n++) {
+			values[i++] = clears[n];
+		}
+		for (double p : PERCENTILES) {
+			values[i++] = percentile(p);
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the histogram bucket of a time. Times under 16ns have a bucket each,
+	 * then every power of two is split into 8 buckets
+	 * @param nanos the time
+	 * @return the bucket
+	 */
+	private static int bucket(long nanos) {
+		if (nanos < 16)
+			return (int) Math.max(nanos, 0);
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int) (nanos >>> (exponent - 3)) & 7;
+		return 16 + (exponent - 4) * 8 + sub;
+	}
+
+	/**
+	 * Returns the largest time in a histogram bucket
+	 * @param b the bucket
+	 * @return the time
+	 */
+	private static long upperBound(int b) {
+		if (b < 16)
+			return b;
+		int exponent = (b - 16) / 8 + 4;
+		long sub = (b - 16) % 8;
+		return ((8 + sub + 1) << (exponent - 3)) - 1;
+	}
+}
@@ -37,4 +37,43 @@ public class Move {
 		this.rotate = rotate;
 		this.pos = pos;
 	}
+	
+	/**
+	 * Packs a move into one int, a byte each for the identity, rotation and
+	 * position, so the solver can pass moves around without creating any
+	 * @param iden the identity of the piece
+	 * @param rotate the value of rotation
+	 * @param pos the value of the position to drop
+	 * @return the packed move
+	 */
+	public static int pack(int iden, int rotate, int pos) {
+		return (iden << 16) | (rotate << 8) | pos;
+	}
+	
+	/**
+	 * Returns the identity of the piece of a packed move
+	 * @param move the packed move
+	 * @return the identity
+	 */
+	public static int iden(int move) {
+		return move >>> 16;
+	}
+	
+	/**
+	 * Returns the rotation of a packed move
+	 * @param move the packed move
+	 * @return the rotation
+	 */
+	public static int rotate(int move) {
+		return (move >>> 8) & 0xFF;
+	}
+	
+	/**
+	 * Returns the position of a packed move
+	 * @param move the packed move
+	 * @return the position
+	 */
+	public static int pos(int move) {
+		return move & 0xFF;
+	}
 }
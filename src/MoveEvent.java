@@ -0,0 +1,55 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * AI4211 Project
+ * A Flight Recorder event for every move played, spanning its decision and
+ * placement, whether or not metrics are collected. Record with
+ * java -XX:StartFlightRecording ... TetrisSolver ...
+ */
+@Name("tetris.Move")
+@Label("Tetris Move")
+@Category("Tetris")
+@Description("A move played by the solver")
+public class MoveEvent extends jdk.jfr.Event {
+
+	/**
+	 * The number of the move, from 0
+	 */
+	@Label("Move")
+	long move;
+
+	/**
+	 * The number of candidate moves scored to decide it
+	 */
+	@Label("Candidates")
+	int candidates;
+
+	/**
+	 * The time taken to decide it
+	 */
+	@Label("Decision Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long decideNanos;
+
+	/**
+	 * The number of lines it cleared
+	 */
+	@Label("Lines Cleared")
+	int linesCleared;
+
+	/**
+	 * The height of the whole stack after it
+	 */
+	@Label("Stack Height")
+	long height;
+
+	/**
+	 * Whether it played a buffer piece in place of the incoming piece
+	 */
+	@Label("Buffer Swap")
+	boolean swapped;
+}
@@ -0,0 +1,67 @@
+/**
+ * AI4211 Project
+ * Lists the distinct placements of every piece on a board of a given width, so
+ * the solver only scores each resulting board once. A position past the last
+ * one a rotation fits at is fixed to touch the right wall when played, landing
+ * exactly where the last one does, so only the positions from 0 to the width of
+ * the board less the width of the rotation are listed. Only the distinct
+ * rotations of each piece are listed, as Pieces gives them.
+ *
+ * The placements are listed in the order the solver always tried them,
+ * rotation then position, and every placement left out landed the same as one
+ * listed before it. Since equal scores go to the move tried first, the moves
+ * chosen are the same as when every position was tried
+ */
+public class MoveGenerator {
+
+	/**
+	 * The placements of each piece, packed by Move.pack, indexed by iden
+	 */
+	private final int[][] moves = new int[8][];
+
+	/**
+	 * Works out the placements of every piece on a board
+	 * @param width the number of columns of the board
+	 */
+	public MoveGenerator(int width) {
+		for (int iden = 1; iden < moves.length; iden++) {
+			int count = 0;
+			for (int r = 0; r < Pieces.rotations(iden); r++) {
+				count += width - Pieces.width(iden, r) + 1;
+			}
+			moves[iden] = new int[count];
+			int n = 0;
+			for (int r = 0; r < Pieces.rotations(iden); r++) {
+				for (int pos = 0; pos <= width - Pieces.width(iden, r); pos++) {
+					moves[iden][n++] = Move.pack(iden, r, pos);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the distinct placements of a piece, in the order to try them
+	 * @param iden the identity of the piece
+	 * @return the placements, packed by Move.pack. Not to be changed
+	 */
+	public int[] moves(int iden) {
+		return moves[iden];
+	}
+
+	/**
+	 * Returns whether a piece on hand is the same as one before it. Playing the
+	 * later one leaves the same board, and the same buffer once the incoming
+	 * piece has taken its place, so its placements need not be tried at all
+	 * @param pieces the pieces on hand
+	 * @param from the index of the first piece to compare against
+	 * @param index the index of the piece
+	 * @return true if a piece from from up to index is the same piece
+	 */
+	static boolean repeats(int[] pieces, int from, int index) {
+		for (int i = from; i < index; i++) {
+			if (pieces[i] == pieces[index])
+				return true;
+		}
+		return false;
+	}
+}
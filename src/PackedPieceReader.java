@@ -0,0 +1,286 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * AI4211 Project
+ * Streams pieces from the packed piece format, where every piece takes 3 bits.
+ *
+ * The format starts with a HEADER_BYTES header: the 4 byte magic "TSP1", a flags
+ * byte (bit 0 set if blocks carry checksums), 3 reserved bytes, the number of
+ * pieces in a full block as an int and the total number of pieces as a long,
+ * all big-endian. The pieces follow in blocks, each the pieces packed 3 bits
+ * apiece from the lowest bit of each byte up, padded to a whole byte, then with
+ * checksums the CRC32 of the block's bytes as an int. Only the last block may
+ * be short
+ */
+public class PackedPieceReader implements PieceSource {
+
+	/**
+	 * The magic bytes opening a packed piece file
+	 */
+	final static byte[] MAGIC = {'T', 'S', 'P', '1'};
+
+	/**
+	 * The size of the header in bytes
+	 */
+	final static int HEADER_BYTES = 20;
+
+	/**
+	 * The flag set if every block is followed by its checksum
+	 */
+	final static int FLAG_CHECKSUMS = 1;
+
+	/**
+	 * The largest block allowed, in pieces
+	 */
+	final static int MAX_BLOCK_PIECES = 1 << 24;
+
+	/**
+	 * The input being read
+	 */
+	private final ReadableByteChannel channel;
+
+	/**
+	 * Whether every block is followed by its checksum
+	 */
+	private final boolean checksums;
+
+	/**
+	 * The number of pieces in a full block
+	 */
+	private final int blockPieces;
+
+	/**
+	 * The number of pieces not yet unpacked
+	 */
+	private long remaining;
+
+	/**
+	 * The bytes of the current block
+	 */
+	private final ByteBuffer block;
+
+	/**
+	 * Checks each block against its checksum
+	 */
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * The unpacked pieces of the current block
+	 */
+	private final int[] pieces;
+
+	/**
+	 * The index of the next unread piece of the block
+	 */
+	private int next = 0;
+
+	/**
+	 * The number of pieces in the block
+	 */
+	private int limit = 0;
+
+	/**
+	 * Opens a reader over a packed input, reading its header
+	 * @param channel the input, closed along with this reader
+	 * @throws IOException if the input is not in the packed piece format
+	 */
+	public PackedPieceReader(ReadableByteChannel channel) throws IOException {
+		this.channel = channel;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		fill(header);
+		header.flip();
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (header.get() != MAGIC[i])
+				throw new IOException("Not a packed piece file");
+		}
+		int flags = header.get();
+		header.position(header.position() + 3);
+		blockPieces = header.getInt();
+		remaining = header.getLong();
+		if (blockPieces <= 0 || blockPieces > MAX_BLOCK_PIECES || blockPieces % 8 != 0 || remaining < 0)
+			throw new IOException("The packed piece file header is not valid");
+		checksums = (flags & FLAG_CHECKSUMS) != 0;
+		block = ByteBuffer.allocate(blockBytes(blockPieces) + 4);
+		pieces = new int[blockPieces];
+	}
+
+	/**
+	 * Opens a reader over a packed piece file
+	 * @param path the file
+	 * @throws IOException if the file cannot be opened or is not in the packed format
+	 */
+	public PackedPieceReader(Path path) throws IOException {
+		this(FileChannel.open(path, StandardOpenOption.READ));
+	}
+
+	/**
+	 * Returns whether a file starts with the packed piece magic
+	 * @param path the file
+	 * @return true if it is a packed piece file
+	 * @throws IOException if the file cannot be read
+	 */
+	static boolean isPacked(Path path) throws IOException {
+		try (InputStream in = Files.newInputStream(path)) {
+			return isPacked(in);
+		}
+	}
+
+	/**
+	 * Returns whether an input starts with the packed piece magic, reading only
+	 * the magic from it
+	 * @param in the input
+	 * @return true if it is in the packed piece format
+	 * @throws IOException if the input cannot be read
+	 */
+	static boolean isPacked(InputStream in) throws IOException {
+		return Arrays.equals(in.readNBytes(MAGIC.length), MAGIC);
+	}
+
+	/**
+	 * Opens a piece source over standard input, in whichever format it is in
+	 * @param in the input, which must support mark
+	 * @return the piece source
+	 * @throws IOException if the input cannot be read
+	 */
+	static PieceSource open(InputStream in) throws IOException {
+		in.mark(MAGIC.length);
+		boolean packed = isPacked(in);
+		in.reset();
+		return packed ? new PackedPieceReader(Channels.newChannel(in)) : new TextPieceReader(in);
+	}
+
+	@Override
+	public int nextPiece() throws IOException {
+		if (next == limit && !unpack())
+			return -1;
+		return pieces[next++];
+	}
+
+	@Override
+	public int read(int[] into, int offset, int length) throws IOException {
+		int n = 0;
+		while (n < length && (next < limit || unpack())) {
+			int take = Math.min(length - n, limit - next);
+			System.arraycopy(pieces, next, into, offset + n, take);
+			next += take;
+			n += take;
+		}
+		return n == 0 && length > 0 ? -1 : n;
+	}
+
+	/**
+	 * Skips over pieces. Whole blocks of a file are skipped by moving past them,
+	 * without reading them
+	 */
+	@Override
+	public long skip(long n) throws IOException {
+		//the rest of the current block first
+		long skipped = Math.min(n, limit - next);
+		next += (int) skipped;
+		if (channel instanceof SeekableByteChannel) {
+			SeekableByteChannel file = (SeekableByteChannel) channel;
+			long blocks = Math.min((n - skipped) / blockPieces, remaining / blockPieces);
+			file.position(file.position() + blocks * (blockBytes(blockPieces) + (checksums ? 4 : 0)));
+			remaining -= blocks * blockPieces;
+			skipped += blocks * blockPieces;
+		}
+		//then into the block the skip ends in
+		while (skipped < n && (next < limit || unpack())) {
+			int take = (int) Math.min(n - skipped, limit - next);
+			next += take;
+			skipped += take;
+		}
+		return skipped;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Returns the number of bytes a block of pieces packs into
+	 * @param n the number of pieces
+	 * @return the bytes, without the checksum
+	 */
+	static int blockBytes(int n) {
+		return (int) (((long) n * 3 + 7) / 8);
+	}
+
+	/*************************************************************************
+	 *                       PRIVATE HELPER METHODS                          *
+	 *************************************************************************/
+
+	/**
+	 * Reads and unpacks the next block
+	 * @return false if every piece has been read
+	 * @throws IOException if the block cannot be read, is cut short, fails its
+	 * 	checksum or holds something other than a piece
+	 */
+	private boolean unpack() throws IOException {
+		if (remaining == 0)
+			return false;
+		int n = (int) Math.min(blockPieces, remaining);
+		int bytes = blockBytes(n);
+		block.clear();
+		block.limit(bytes + (checksums ? 4 : 0));
+		fill(block);
+		byte[] packed = block.array();
+		if (checksums) {
+			crc.reset();
+			crc.update(packed, 0, bytes);
+			if ((int) crc.getValue() != block.getInt(bytes))
+				throw new IOException("A block of the packed piece file fails its checksum");
+		}
+		//3 bytes hold 8 pieces, so unpack them 8 at a time
+		int bad = 0;
+		int i = 0;
+		int b = 0;
+		for (; i + 8 <= n; i += 8, b += 3) {
+			int bits = (packed[b] & 0xFF) | (packed[b+1] & 0xFF) << 8 | (packed[b+2] & 0xFF) << 16;
+			for (int k = 0; k < 8; k++) {
+				int piece = (bits >>> (k * 3)) & 7;
+				pieces[i+k] = piece;
+				bad |= piece == 0 ? 1 : 0;
+			}
+		}
+		//and the last few of a short block
+		for (; i < n; i++) {
+			int bit = i * 3;
+			int bits = (packed[bit >>> 3] & 0xFF) | (bit % 8 > 5 ? (packed[(bit >>> 3) + 1] & 0xFF) << 8 : 0);
+			int piece = (bits >>> (bit % 8)) & 7;
+			pieces[i] = piece;
+			bad |= piece == 0 ? 1 : 0;
+		}
+		if (bad != 0)
+			throw new IOException("The packed piece file holds a piece that is not valid");
+		remaining -= n;
+		next = 0;
+		limit = n;
+		return true;
+	}
+
+	/**
+	 * Reads from the input until a buffer is full
+	 * @param buffer the buffer
+	 * @throws IOException if the input ends first
+	 */
+	private void fill(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) == -1)
+				throw new EOFException("The packed piece file is cut short");
+		}
+	}
+}
@@ -0,0 +1,209 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * AI4211 Project
+ * Writes pieces in the packed piece format read by PackedPieceReader, 3 bits a
+ * piece in fixed size blocks, optionally each with a CRC32. The total number of
+ * pieces is only known at the end, so it is filled into the header on close.
+ *
+ * Run on its own, converts a piece file between text and the packed format:
+ * java PackedPieceWriter [--crc] pieces.txt pieces.tsp
+ * java PackedPieceWriter --text pieces.tsp pieces.txt
+ */
+public class PackedPieceWriter implements Closeable {
+
+	/**
+	 * The number of pieces in a full block, a multiple of 8 so that every full
+	 * block fills whole bytes
+	 */
+	final static int BLOCK_PIECES = 1 << 16;
+
+	/**
+	 * The file being written
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Whether every block is followed by its checksum
+	 */
+	private final boolean checksums;
+
+	/**
+	 * The bytes of the block being packed, and its checksum
+	 */
+	private final ByteBuffer block = ByteBuffer.allocate(PackedPieceReader.blockBytes(BLOCK_PIECES) + 4);
+
+	/**
+	 * Works out each block's checksum
+	 */
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * The number of pieces in the block being packed
+	 */
+	private int pending = 0;
+
+	/**
+	 * Bits packed but not yet put in the block, and how many there are
+	 */
+	private int bits = 0, bitCount = 0;
+
+	/**
+	 * The number of pieces written
+	 */
+	private long count = 0;
+
+	/**
+	 * Opens a packed piece file for writing, writing its header with no pieces
+	 * @param path the file. If it does exist, it rewrites it
+	 * @param checksums whether to follow every block with its checksum
+	 * @throws IOException if the file cannot be written
+	 */
+	public PackedPieceWriter(Path path, boolean checksums) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.checksums = checksums;
+		writeHeader();
+	}
+
+	/**
+	 * Writes a piece
+	 * @param piece the identity of the piece, 1 - 7
+	 * @throws IOException if a full block cannot be written
+	 */
+	public void write(int piece) throws IOException {
+		if (piece < 1 || piece > 7)
+			throw new IllegalArgumentException("Not a piece: " + piece);
+		bits |= piece << bitCount;
+		bitCount += 3;
+		while (bitCount >= 8) {
+			block.put((byte) bits);
+			bits >>>= 8;
+			bitCount -= 8;
+		}
+		count++;
+		if (++pending == BLOCK_PIECES)
+			writeBlock();
+	}
+
+	/**
+	 * Writes the last block and fills the number of pieces into the header
+	 * @throws IOException if the file cannot be written
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (pending > 0)
+				writeBlock();
+			channel.position(0);
+			writeHeader();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/*************************************************************************
+	 *                       PRIVATE HELPER METHODS                          *
+	 *************************************************************************/
+
+	/**
+	 * Writes the header, with the number of pieces written so far
+	 * @throws IOException if the header cannot be written
+	 */
+	private void writeHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(PackedPieceReader.HEADER_BYTES);
+		header.put(PackedPieceReader.MAGIC);
+		header.put((byte) (checksums ? PackedPieceReader.FLAG_CHECKSUMS : 0));
+		header.put(new byte[3]);
+		header.putInt(BLOCK_PIECES);
+		header.putLong(count);
+		header.flip();
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+	}
+
+	/**
+	 * Writes the block being packed, padding it to a whole byte, and starts the next
+	 * @throws IOException if the block cannot be written
+	 */
+	private void writeBlock() throws IOException {
+		if (bitCount > 0) {
+			block.put((byte) bits);
+			bits = 0;
+			bitCount = 0;
+		}
+		if (checksums) {
+			crc.reset();
+			crc.update(block.array(), 0, block.position());
+			block.putInt((int) crc.getValue());
+		}
+		block.flip();
+		while (block.hasRemaining()) {
+			channel.write(block);
+		}
+		block.clear();
+		pending = 0;
+	}
+
+	/*************************************************************************
+	 *                             MAIN METHOD                               *
+	 *************************************************************************/
+
+	public static void main(String args[]) {
+		boolean text = args.length == 3 && args[0].equals("--text");
+		boolean crc = args.length == 3 && args[0].equals("--crc");
+		if (!(text || crc || args.length == 2)) {
+			System.out.println("Usage: java PackedPieceWriter [--crc] pieces.txt pieces.tsp");
+			System.out.println("       java PackedPieceWriter --text pieces.tsp pieces.txt");
+			return;
+		}
+		Path in = Paths.get(args[args.length - 2]);
+		Path out = Paths.get(args[args.length - 1]);
+		int[] chunk = new int[BLOCK_PIECES];
+		int n;
+		try {
+			if (text) {
+				try (PieceSource source = new PackedPieceReader(in);
+						FileChannel channel = FileChannel.open(out, StandardOpenOption.CREATE,
+							StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+					//lines of 80 digits, as the text format allows any layout
+					ByteBuffer bytes = ByteBuffer.allocate(BLOCK_PIECES * 2);
+					long written = 0;
+					while ((n = source.read(chunk, 0, chunk.length)) != -1) {
+						for (int i = 0; i < n; i++) {
+							bytes.put((byte) ('0' + chunk[i]));
+							if (++written % 80 == 0)
+								bytes.put((byte) '\n');
+						}
+						bytes.flip();
+						while (bytes.hasRemaining()) {
+							channel.write(bytes);
+						}
+						bytes.clear();
+					}
+					if (written % 80 != 0)
+						channel.write(ByteBuffer.wrap(new byte[] {'\n'}));
+				}
+			} else {
+				try (PieceSource source = new MappedPieceReader(in);
+						PackedPieceWriter writer = new PackedPieceWriter(out, crc)) {
+					while ((n = source.read(chunk, 0, chunk.length)) != -1) {
+						for (int i = 0; i < n; i++) {
+							writer.write(chunk[i]);
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("Failed to convert file: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,280 @@
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AI4211 Project
+ * Reads pieces from another source on a background thread into a bounded ring
+ * buffer of ints, so that reading the input overlaps playing it. The reader
+ * fills the ring a chunk at a time and waits while it is full, so it never runs
+ * more than the capacity of the ring ahead of the game.
+ *
+ * There is one reader and one consumer. Each only writes its own index, so the
+ * ring needs no locks: a piece is published by the volatile write of the tail
+ * after it is stored, and its slot freed by the volatile write of the head
+ * after it is taken. A consumer waiting for pieces spins briefly, then parks
+ * until the reader wakes it; a reader waiting for room parks at once until the
+ * consumer has freed a chunk's worth. Each side raises a flag before it parks
+ * and checks again after, and the other side checks the flag after moving its
+ * index, so one of them always sees the other and neither sleeps through
+ * a wake-up.
+ *
+ * Before the consumer parks it flushes whatever was set with flushWhenIdle, so
+ * that the moves played so far go out while the game waits for more input
+ */
+public class PieceRing implements PieceSource {
+
+	/**
+	 * The most pieces the reader reads from the source at once
+	 */
+	private final static int CHUNK_PIECES = 4096;
+
+	/**
+	 * The number of times a waiting consumer spins before it parks
+	 */
+	private final static int SPINS = 100;
+
+	/**
+	 * How long close waits for the reader to stop, in milliseconds
+	 */
+	private final static long STOP_MILLIS = 1000;
+
+	/**
+	 * The ring of pieces, its length a power of 2
+	 */
+	private final int[] ring;
+
+	/**
+	 * The length of the ring less 1, masking an index into it
+	 */
+	private final int mask;
+
+	/**
+	 * The index of the next piece to take, only written by the consumer
+	 */
+	private volatile long head = 0;
+
+	/**
+	 * The index of the next piece to put, only written by the reader
+	 */
+	private volatile long tail = 0;
+
+	/**
+	 * The tail as the consumer last read it, so that it only reads the volatile
+	 * tail once it has taken every piece it knew of
+	 */
+	private long known = 0;
+
+	/**
+	 * Whether the reader has read the whole source, or failed to
+	 */
+	private volatile boolean ended = false;
+
+	/**
+	 * Whether the consumer has closed the ring, so the reader should stop
+	 */
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Whether the reader is parked, or about to park, waiting for room
+	 */
+	private volatile boolean readerWaiting = false;
+
+	/**
+	 * The consumer if it is parked, or about to park, waiting for pieces, or null
+	 */
+	private volatile Thread consumerWaiting = null;
+
+	/**
+	 * Flushed by the consumer before it parks, or null
+	 */
+	private Flushable idle = null;
+
+	/**
+	 * Why the reader failed, or null
+	 */
+	private volatile IOException failure = null;
+
+	/**
+	 * The background thread reading the source
+	 */
+	private final Thread reader;
+
+	/**
+	 * Creates a ring and starts reading the source into it
+	 * @param source the pieces, closed by the reader once it has finished with them
+	 * @param capacity the most pieces held at once, rounded up to a power of 2
+	 */
+	public PieceRing(PieceSource source, int capacity) {
+		if (capacity < 1 || capacity > 1 << 30)
+			throw new IllegalArgumentException("A ring must hold from 1 to 2^30 pieces");
+		int size = 1;
+		while (size < capacity)
+			size <<= 1;
+		ring = new int[size];
+		mask = ring.length - 1;
+		reader = new Thread(() -> pump(source), "piece reader");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Sets something to flush whenever the consumer has to wait for pieces
+	 * @param idle flushed on the consumer's thread before it parks, or null
+	 */
+	public void flushWhenIdle(Flushable idle) {
+		this.idle = idle;
+	}
+
+	@Override
+	public int nextPiece() throws IOException {
+		long h = head;
+		if (h == known && !await(h))
+			return -1;
+		int piece = ring[(int) h & mask];
+		head = h + 1;
+		if (readerWaiting)
+			wakeReader(h + 1);
+		return piece;
+	}
+
+	@Override
+	public int read(int[] pieces, int offset, int length) throws IOException {
+		if (length == 0)
+			return 0;
+		long h = head;
+		if (h == known && !await(h))
+			return -1;
+		int n = (int) Math.min(length, known - h);
+		for (int i = 0; i < n; i++) {
+			pieces[offset + i] = ring[(int) (h + i) & mask];
+		}
+		head = h + n;
+		if (readerWaiting)
+			wakeReader(h + n);
+		return n;
+	}
+
+	/**
+	 * Stops the reader, if it has not yet finished, and waits a while for it
+	 */
+	@Override
+	public void close() throws IOException {
+		cancelled = true;
+		LockSupport.unpark(reader);
+		try {
+			reader.join(STOP_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*************************************************************************
+	 *                       PRIVATE HELPER METHODS                          *
+	 *************************************************************************/
+
+	/**
+	 * Waits for the reader to put more pieces in the ring
+	 * @param h the head, which every piece known of has reached
+	 * @return false if the source has ended
+	 * @throws IOException if the reader failed to read the source
+	 */
+	private boolean await(long h) throws IOException {
+		for (int spins = 0; ; spins++) {
+			//read ended first, so that a tail read after it is the last
+			boolean done = ended;
+			known = tail;
+			if (known != h) {
+				consumerWaiting = null;
+				return true;
+			}
+			if (done) {
+				consumerWaiting = null;
+				if (failure != null)
+					throw failure;
+				return false;
+			}
+			if (spins < SPINS) {
+				Thread.onSpinWait();
+			} else if (consumerWaiting == null) {
+				if (idle != null)
+					idle.flush();
+				//check once more with the flag raised before parking
+				consumerWaiting = Thread.currentThread();
+			} else {
+				LockSupport.park(this);
+			}
+		}
+	}
+
+	/**
+	 * Wakes the reader if a chunk's worth of room has been freed
+	 * @param h the head
+	 */
+	private void wakeReader(long h) {
+		if (ring.length - (tail - h) >= Math.min(CHUNK_PIECES, ring.length)) {
+			readerWaiting = false;
+			LockSupport.unpark(reader);
+		}
+	}
+
+	/**
+	 * Reads the whole source into the ring, on the reader thread
+	 * @param source the pieces
+	 */
+	private void pump(PieceSource source) {
+		int[] chunk = new int[CHUNK_PIECES];
+		try (PieceSource input = source) {
+			int n;
+			while (!cancelled && (n = input.read(chunk, 0, chunk.length)) != -1) {
+				put(chunk, n);
+			}
+		} catch (IOException e) {
+			failure = e;
+		} catch (RuntimeException e) {
+			failure = new IOException("Failed to read the pieces", e);
+		} finally {
+			ended = true;
+			wakeConsumer();
+		}
+	}
+
+	/**
+	 * Puts a chunk of pieces in the ring, waiting for room as it is needed
+	 * @param chunk the pieces
+	 * @param n the number of pieces in the chunk
+	 */
+	private void put(int[] chunk, int n) {
+		long t = tail;
+		int done = 0;
+		while (done < n && !cancelled) {
+			int room = (int) Math.min(n - done, ring.length - (t - head));
+			if (room == 0) {
+				//check once more with the flag raised before parking
+				if (!readerWaiting) {
+					readerWaiting = true;
+				} else {
+					LockSupport.park(this);
+				}
+				continue;
+			}
+			readerWaiting = false;
+			for (int i = 0; i < room; i++) {
+				ring[(int) (t + i) & mask] = chunk[done + i];
+			}
+			t += room;
+			done += room;
+			tail = t;
+			wakeConsumer();
+		}
+	}
+
+	/**
+	 * Wakes the consumer if it is waiting for pieces
+	 */
+	private void wakeConsumer() {
+		Thread waiting = consumerWaiting;
+		if (waiting != null)
+			LockSupport.unpark(waiting);
+	}
+}
@@ -0,0 +1,51 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * AI4211 Project
+ * A sequence of tetris pieces, delivered one at a time in the order they are
+ * to be played
+ */
+public interface PieceSource extends Closeable {
+
+	/**
+	 * Returns the next piece of the sequence
+	 * @return the identity of the piece (1 - 7), or -1 once the sequence has ended
+	 * @throws IOException if the sequence cannot be read
+	 */
+	int nextPiece() throws IOException;
+
+	/**
+	 * Reads a chunk of the sequence into an array, as many pieces as are left up
+	 * to the length given
+	 * @param pieces the array to fill
+	 * @param offset the index of the first piece to fill in
+	 * @param length the most pieces to read
+	 * @return the number of pieces read, or -1 once the sequence has ended
+	 * @throws IOException if the sequence cannot be read
+	 */
+	default int read(int[] pieces, int offset, int length) throws IOException {
+		int n = 0;
+		int piece;
+		while (n < length && (piece = nextPiece()) != -1) {
+			pieces[offset + n++] = piece;
+		}
+		return n == 0 && length > 0 ? -1 : n;
+	}
+
+	/**
+	 * Skips over pieces of the sequence, as many as are left up to the number given
+	 * @param n the number of pieces to skip
+	 * @return the number of pieces skipped
+	 * @throws IOException if the sequence cannot be read
+	 */
+	default long skip(long n) throws IOException {
+		int[] chunk = new int[(int) Math.min(n, 1 << 16)];
+		long skipped = 0;
+		int read;
+		while (skipped < n && (read = read(chunk, 0, (int) Math.min(n - skipped, chunk.length))) != -1) {
+			skipped += read;
+		}
+		return skipped;
+	}
+}
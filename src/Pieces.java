@@ -0,0 +1,112 @@
+import java.util.Arrays;
+
+/**
+ * AI4211 Project
+ * The shape tables of the seven tetrominoes. Each shape is given once, as the
+ * cells of every distinct rotation, and everything placement needs is worked
+ * out from the cells when the class is loaded: the row masks, the width, and
+ * the lowest and one above the highest row of every column. The rotations are
+ * listed in the order the solver numbers them, so that a rotation in the
+ * output always means the same shape
+ */
+public final class Pieces {
+
+	/**
+	 * The cells of every piece and rotation as x,y pairs, x from the left and y
+	 * from the bottom of the piece. Indexed by [iden][rotation]
+	 */
+	private final static int[][][] CELLS = {
+		//no piece 0
+		{},
+		//the I tetromino, upright and then lying down
+		{{0,0, 0,1, 0,2, 0,3}, {0,0, 1,0, 2,0, 3,0}},
+		//the square tetromino
+		{{0,0, 1,0, 0,1, 1,1}},
+		//the T tetromino
+		{{0,0, 0,1, 1,1, 0,2}, {0,0, 1,0, 2,0, 1,1}, {1,0, 0,1, 1,1, 1,2}, {1,0, 0,1, 1,1, 2,1}},
+		//the J tetromino
+		{{0,0, 0,1, 0,2, 1,2}, {0,0, 1,0, 2,0, 0,1}, {0,0, 1,0, 1,1, 1,2}, {2,0, 0,1, 1,1, 2,1}},
+		//the L tetromino
+		{{1,0, 1,1, 0,2, 1,2}, {0,0, 0,1, 1,1, 2,1}, {0,0, 1,0, 0,1, 0,2}, {0,0, 1,0, 2,0, 2,1}},
+		//the S tetromino
+		{{1,0, 0,1, 1,1, 0,2}, {0,0, 1,0, 1,1, 2,1}},
+		//the Z tetromino
+		{{0,0, 0,1, 1,1, 1,2}, {1,0, 2,0, 0,1, 1,1}}
+	};
+
+	/**
+	 * The row masks of every piece and rotation, placed against the left wall.
+	 * Indexed by [iden][rotation][row], where row 0 is the bottom row of the piece
+	 */
+	final static int[][][] MASKS = new int[CELLS.length][][];
+
+	/**
+	 * The lowest row of every column of every piece and rotation, indexed by
+	 * [iden][rotation][column]. The width of a rotation is its number of columns
+	 */
+	final static int[][][] BOTTOMS = new int[CELLS.length][][];
+
+	/**
+	 * One above the highest row of every column of every piece and rotation,
+	 * indexed by [iden][rotation][column]
+	 */
+	final static int[][][] TOPS = new int[CELLS.length][][];
+
+	static {
+		for (int iden = 0; iden < CELLS.length; iden++) {
+			int rotations = CELLS[iden].length;
+			MASKS[iden] = new int[rotations][];
+			BOTTOMS[iden] = new int[rotations][];
+			TOPS[iden] = new int[rotations][];
+			for (int r = 0; r < rotations; r++) {
+				int[] cells = CELLS[iden][r];
+				//size the rotation first
+				int width = 0;
+				int height = 0;
+				for (int i = 0; i < cells.length; i += 2) {
+					width = Math.max(width, cells[i] + 1);
+					height = Math.max(height, cells[i+1] + 1);
+				}
+				int[] masks = new int[height];
+				int[] bottoms = new int[width];
+				int[] tops = new int[width];
+				Arrays.fill(bottoms, height);
+				for (int i = 0; i < cells.length; i += 2) {
+					int x = cells[i];
+					int y = cells[i+1];
+					masks[y] |= 1 << x;
+					bottoms[x] = Math.min(bottoms[x], y);
+					tops[x] = Math.max(tops[x], y + 1);
+				}
+				MASKS[iden][r] = masks;
+				BOTTOMS[iden][r] = bottoms;
+				TOPS[iden][r] = tops;
+			}
+		}
+	}
+
+	/**
+	 * Not to be created, the tables are static
+	 */
+	private Pieces() {
+	}
+
+	/**
+	 * Returns the number of distinct rotations of a piece
+	 * @param iden the identity of the piece
+	 * @return the total unique rotations
+	 */
+	static int rotations(int iden) {
+		return CELLS[iden].length;
+	}
+
+	/**
+	 * Returns the number of columns a piece covers in a rotation
+	 * @param iden the identity of the piece
+	 * @param rotate the rotation, taken modulo the number of unique rotations
+	 * @return the width
+	 */
+	static int width(int iden, int rotate) {
+		return BOTTOMS[iden][rotate % BOTTOMS[iden].length].length;
+	}
+}
@@ -0,0 +1,42 @@
+import java.util.Random;
+
+/**
+ * AI4211 Project
+ * A seeded sequence of random pieces, generated as they are read, for the
+ * tests, the benchmarks and the weight tuner. The same seed always gives the
+ * same pieces, and reading them allocates nothing
+ */
+public class RandomPieces implements PieceSource {
+
+	/**
+	 * Draws the pieces
+	 */
+	private final Random random;
+
+	/**
+	 * The number of pieces still to be delivered
+	 */
+	private long left;
+
+	/**
+	 * Creates a sequence of random pieces
+	 * @param seed the seed
+	 * @param pieces the number of pieces
+	 */
+	public RandomPieces(long seed, long pieces) {
+		random = new Random(seed);
+		left = pieces;
+	}
+
+	@Override
+	public int nextPiece() {
+		if (left == 0)
+			return -1;
+		left--;
+		return 1 + random.nextInt(7);
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,382 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * AI4211 Project
+ * The rows sealed off below the window of a board, the floor of the game first.
+ * Only the top TAIL_ROWS of them are held in memory, where sealing adds rows
+ * and unsealing takes them back. Below those the rows are spilled a chunk at a
+ * time to a file, and read back a chunk at a time should unsealing ever reach
+ * them, so memory stays the same however tall the stack grows.
+ *
+ * The file is only ever appended to. The spilled rows are a list of extents of
+ * it, which stays one extent unless rows are read back and others spilled after
+ * them, so a snapshot of the sealed rows is just the extents and the rows in
+ * memory, and stays good however the game goes on. The file is a temporary one
+ * deleted on close, unless set with spillTo
+ */
+public class SealedRows implements Closeable {
+
+	/**
+	 * The number of rows spilled to or read back from the file at a time
+	 */
+	final static int CHUNK_ROWS = 1024;
+
+	/**
+	 * The most rows held in memory before the oldest chunk is spilled
+	 */
+	final static int TAIL_ROWS = 4 * CHUNK_ROWS;
+
+	/**
+	 * The file the rows are spilled to, or null for a temporary file
+	 */
+	private Path path = null;
+
+	/**
+	 * The open file, or null until the first chunk is spilled
+	 */
+	private FileChannel channel = null;
+
+	/**
+	 * The number of rows ever written to the file, where the next chunk goes
+	 */
+	private long fileRows = 0;
+
+	/**
+	 * The spilled rows, the floor first, as extents of the file: the row each
+	 * starts at and its number of rows
+	 */
+	private long[] extentStart = new long[1], extentLength = new long[1];
+
+	/**
+	 * The number of extents
+	 */
+	private int extents = 0;
+
+	/**
+	 * The number of rows spilled
+	 */
+	private long spilled = 0;
+
+	/**
+	 * The rows held in memory, above the spilled rows
+	 */
+	private int[] tail = new int[16];
+
+	/**
+	 * The number of rows held in memory
+	 */
+	private int tailRows = 0;
+
+	/**
+	 * A chunk of rows on their way to or from the file, and a view of it as ints.
+	 * Allocated with the file
+	 */
+	private ByteBuffer io = null;
+	private IntBuffer ints = null;
+
+	/**
+	 * Returns the number of sealed rows
+	 * @return the number of rows, spilled or not
+	 */
+	public long size() {
+		return spilled + tailRows;
+	}
+
+	/**
+	 * Sets the file to spill the rows to, so that snapshots of them can be
+	 * resumed from. Only valid before any rows are spilled, and the file is
+	 * rewritten
+	 * @param path the file
+	 * @throws IllegalStateException if rows have already been spilled
+	 */
+	public void spillTo(Path path) {
+		if (channel != null || fileRows > 0)
+			throw new IllegalStateException("Rows have already been spilled");
+		this.path = path;
+	}
+
+	/**
+	 * Returns the file the rows are spilled to
+	 * @return the file, or null for a temporary file
+	 */
+	public Path path() {
+		return path;
+	}
+
+	/**
+	 * Seals rows on top of the rows already sealed, spilling the oldest held in
+	 * memory to the file whenever too many are
+	 * @param rows the rows, the lowest first
+	 * @param from the index of the lowest row
+	 * @param n the number of rows
+	 * @throws UncheckedIOException if the rows cannot be spilled
+	 */
+	public void add(int[] rows, int from, int n) {
+		while (n > 0) {
+			while (tailRows >= TAIL_ROWS) {
+				spill();
+			}
+			int k = Math.min(n, TAIL_ROWS - tailRows);
+			ensureTail(tailRows + k);
+			System.arraycopy(rows, from, tail, tailRows, k);
+			tailRows += k;
+			from += k;
+			n -= k;
+		}
+	}
+
+	/**
+	 * Returns a sealed row, counting down from the top, reading spilled rows
+	 * back should it be among them
+	 * @param k the number of rows above it, 0 for the top row
+	 * @return the row
+	 * @throws UncheckedIOException if spilled rows cannot be read back
+	 */
+	public int fromTop(long k) {
+		while (k >= tailRows) {
+			readBack();
+		}
+		return tail[tailRows - 1 - (int) k];
+	}
+
+	/**
+	 * Takes rows off the top of the sealed rows
+	 * @param into where to put them, the lowest first
+	 * @param n the number of rows, no more than size
+	 * @throws UncheckedIOException if spilled rows cannot be read back
+	 */
+	public void take(int[] into, int n) {
+		while (n > tailRows) {
+			readBack();
+		}
+		tailRows -= n;
+		System.arraycopy(tail, tailRows, into, 0, n);
+	}
+
+	/**
+	 * Sets these sealed rows to a snapshot of others: the extents of their file
+	 * and the rows they hold in memory, not the file itself. Reuses the memory
+	 * of this one if there is room
+	 * @param other the sealed rows to copy
+	 */
+	public void copyFrom(SealedRows other) {
+		path = other.path;
+		fileRows = other.fileRows;
+		if (extentStart.length < other.extents) {
+			extentStart = new long[other.extentStart.length];
+			extentLength = new long[other.extentStart.length];
+		}
+		System.arraycopy(other.extentStart, 0, extentStart, 0, other.extents);
+		System.arraycopy(other.extentLength, 0, extentLength, 0, other.extents);
+		extents = other.extents;
+		spilled = other.spilled;
+		ensureTail(other.tailRows);
+		System.arraycopy(other.tail, 0, tail, 0, other.tailRows);
+		tailRows = other.tailRows;
+	}
+
+	/**
+	 * Forces the rows spilled so far to storage
+	 * @throws IOException if they cannot be forced
+	 */
+	public void force() throws IOException {
+		FileChannel file = channel;
+		if (file != null)
+			file.force(false);
+	}
+
+	/**
+	 * Returns the number of bytes save writes
+	 * @return the size of the saved rows
+	 */
+	int savedBytes() {
+		return 8 + 4 + extents * 16 + 4 + tailRows * 4;
+	}
+
+	/**
+	 * Writes the sealed rows to a buffer: the number of rows, the extents of the
+	 * file each as its start and length, then the rows held in memory
+	 * @param out the buffer, with at least savedBytes left
+	 */
+	void save(ByteBuffer out) {
+		out.putLong(size());
+		out.putInt(extents);
+		for (int e = 0; e < extents; e++) {
+			out.putLong(extentStart[e]);
+			out.putLong(extentLength[e]);
+		}
+		out.putInt(tailRows);
+		for (int r = 0; r < tailRows; r++) {
+			out.putInt(tail[r]);
+		}
+	}
+
+	/**
+	 * Reads sealed rows written by save, spilled to a given file, checking that
+	 * every extent lies within it. The rows spilled are not read until needed
+	 * @param in the buffer, positioned at the saved rows
+	 * @param fullMask a row with every column filled
+	 * @param path the file the rows were spilled to, or null if none were
+	 * @return the sealed rows, spilling any more rows to the end of the file
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if the saved rows are not valid
+	 */
+	static SealedRows load(ByteBuffer in, int fullMask, Path path) throws IOException {
+		SealedRows sealed = new SealedRows();
+		sealed.path = path;
+		sealed.fileRows = path != null && Files.exists(path) ? Files.size(path) / 4 : 0;
+		long size = in.getLong();
+		int extents = in.getInt();
+		if (extents < 0 || extents > in.remaining() / 16)
+			throw new IllegalArgumentException("The saved sealed rows are not valid");
+		sealed.extentStart = new long[Math.max(extents, 1)];
+		sealed.extentLength = new long[Math.max(extents, 1)];
+		for (int e = 0; e < extents; e++) {
+			long start = in.getLong();
+			long length = in.getLong();
+			if (start < 0 || length <= 0 || length > sealed.fileRows - start)
+				throw new IllegalArgumentException("The saved sealed rows lie outside " + path);
+			sealed.extentStart[e] = start;
+			sealed.extentLength[e] = length;
+			sealed.spilled += length;
+		}
+		sealed.extents = extents;
+		int held = in.getInt();
+		if (held < 0 || held > in.remaining() / 4 || sealed.spilled + held != size)
+			throw new IllegalArgumentException("The saved sealed rows are not valid");
+		sealed.ensureTail(held);
+		for (int r = 0; r < held; r++) {
+			int row = in.getInt();
+			if ((row & ~fullMask) != 0 || row == fullMask)
+				throw new IllegalArgumentException("The saved board holds a sealed row that is not valid");
+			sealed.tail[r] = row;
+		}
+		sealed.tailRows = held;
+		return sealed;
+	}
+
+	/**
+	 * Closes the file, deleting it if it is a temporary one
+	 * @throws IOException if the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	/*************************************************************************
+	 *                       PRIVATE HELPER METHODS                          *
+	 *************************************************************************/
+
+	/**
+	 * Appends the oldest chunk held in memory to the file
+	 * @throws UncheckedIOException if the chunk cannot be written
+	 */
+	private void spill() {
+		try {
+			open();
+			ints.clear();
+			ints.put(tail, 0, CHUNK_ROWS);
+			io.clear();
+			long at = fileRows * 4;
+			while (io.hasRemaining()) {
+				at += channel.write(io, at);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		//carry on the last extent if it ends where the file does
+		if (extents > 0 && extentStart[extents-1] + extentLength[extents-1] == fileRows) {
+			extentLength[extents-1] += CHUNK_ROWS;
+		} else {
+			if (extents == extentStart.length) {
+				extentStart = Arrays.copyOf(extentStart, extents * 2);
+				extentLength = Arrays.copyOf(extentLength, extents * 2);
+			}
+			extentStart[extents] = fileRows;
+			extentLength[extents] = CHUNK_ROWS;
+			extents++;
+		}
+		fileRows += CHUNK_ROWS;
+		spilled += CHUNK_ROWS;
+		tailRows -= CHUNK_ROWS;
+		System.arraycopy(tail, CHUNK_ROWS, tail, 0, tailRows);
+	}
+
+	/**
+	 * Reads the top chunk of the spilled rows back into the bottom of memory.
+	 * The file is left as it is, so its rows are spilled again elsewhere
+	 * @throws UncheckedIOException if there are no spilled rows, or the chunk
+	 * 	cannot be read
+	 */
+	private void readBack() {
+		if (extents == 0)
+			throw new UncheckedIOException(new IOException("No sealed rows are left to read back"));
+		int k = (int) Math.min(CHUNK_ROWS, extentLength[extents-1]);
+		long at = (extentStart[extents-1] + extentLength[extents-1] - k) * 4;
+		try {
+			open();
+			io.clear();
+			io.limit(k * 4);
+			while (io.hasRemaining()) {
+				int read = channel.read(io, at);
+				if (read < 0)
+					throw new IOException("The sealed rows end early in " + (path == null ? "the spill file" : path));
+				at += read;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		ensureTail(tailRows + k);
+		System.arraycopy(tail, 0, tail, k, tailRows);
+		ints.clear();
+		ints.get(tail, 0, k);
+		tailRows += k;
+		spilled -= k;
+		extentLength[extents-1] -= k;
+		if (extentLength[extents-1] == 0)
+			extents--;
+	}
+
+	/**
+	 * Opens the file on first use. A temporary file is deleted once closed, and
+	 * a file nothing was spilled to yet is emptied
+	 * @throws IOException if the file cannot be opened
+	 */
+	private void open() throws IOException {
+		if (channel != null)
+			return;
+		if (path == null) {
+			channel = FileChannel.open(Files.createTempFile("tetris", ".rows"), StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+		} else {
+			channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+			if (fileRows == 0)
+				channel.truncate(0);
+		}
+		io = ByteBuffer.allocateDirect(CHUNK_ROWS * 4);
+		ints = io.asIntBuffer();
+	}
+
+	/**
+	 * Makes room in memory for a number of rows, at least doubling the room
+	 * @param rows the number of rows
+	 */
+	private void ensureTail(int rows) {
+		if (rows > tail.length)
+			tail = Arrays.copyOf(tail, Math.max(rows, tail.length * 2));
+	}
+}
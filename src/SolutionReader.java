@@ -0,0 +1,279 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * AI4211 Project
+ * Reads the moves of a solution file, in either format SolutionWriter writes,
+ * told apart by the binary magic. The file is memory-mapped a window at a time
+ * and its bytes parsed in place, so files of any size are read at the speed of
+ * the page cache.
+ *
+ * A text move is a line of three numbers, the identity, rotation and position,
+ * separated by spaces or tabs. Blank lines are skipped. Anything else, or a
+ * number too big for its byte of a packed move, is not a move
+ */
+public class SolutionReader implements Closeable {
+
+	/**
+	 * Returned by nextMove once every move has been read
+	 */
+	final static int END = -1;
+
+	/**
+	 * Returned by nextMove for a line or byte that is not a move
+	 */
+	final static int MALFORMED = -2;
+
+	/**
+	 * The most bytes mapped at once
+	 */
+	private final static long WINDOW_BYTES = 64L * 1024 * 1024;
+
+	/**
+	 * The file being read
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The size of the file in bytes
+	 */
+	private final long size;
+
+	/**
+	 * Whether the file is a binary solution
+	 */
+	private final boolean binary;
+
+	/**
+	 * The width of the board of a binary solution, or 0 for text
+	 */
+	private final int width;
+
+	/**
+	 * The position in the file of the current window
+	 */
+	private long start = 0;
+
+	/**
+	 * The current window of the file, null before the first is mapped
+	 */
+	private MappedByteBuffer window = null;
+
+	/**
+	 * The index of the next unread byte in the window
+	 */
+	private int next = 0;
+
+	/**
+	 * The number of bytes in the window
+	 */
+	private int limit = 0;
+
+	/**
+	 * The last byte read while parsing a text move
+	 */
+	private int last = 0;
+
+	/**
+	 * The number of moves read so far, counting those that are not moves
+	 */
+	private long moves = 0;
+
+	/**
+	 * Opens a reader over a solution file, reading the binary header if it has one
+	 * @param path the file
+	 * @throws IOException if the file cannot be opened, or is binary with a
+	 * 	board width that is not valid
+	 */
+	public SolutionReader(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		size = channel.size();
+		boolean magic = size > SolutionWriter.MAGIC.length;
+		for (int i = 0; magic && i < SolutionWriter.MAGIC.length; i++) {
+			magic = peek(i) == SolutionWriter.MAGIC[i];
+		}
+		binary = magic;
+		if (binary) {
+			width = nextByte();
+			if (width < Board.MIN_WIDTH || width > SolutionWriter.MAX_BINARY_WIDTH) {
+				channel.close();
+				throw new IOException(path + " has a board width that is not valid: " + width);
+			}
+		} else {
+			width = 0;
+			next = 0;
+		}
+	}
+
+	/**
+	 * Returns whether the file is a binary solution
+	 * @return true if binary, false if text
+	 */
+	public boolean binary() {
+		return binary;
+	}
+
+	/**
+	 * Returns the width of the board a binary solution was played on
+	 * @return the width, or 0 for a text solution, which does not say
+	 */
+	public int width() {
+		return width;
+	}
+
+	/**
+	 * Returns the number of moves read so far, counting those that are not
+	 * moves, so the number of the last move read
+	 * @return the number of moves
+	 */
+	public long moves() {
+		return moves;
+	}
+
+	/**
+	 * Reads the next move
+	 * @return the move, packed by Move.pack, MALFORMED if it is not a move, or
+	 * 	END once every move has been read
+	 * @throws IOException if the file cannot be read
+	 */
+	public int nextMove() throws IOException {
+		if (binary) {
+			int code = nextByte();
+			if (code < 0)
+				return END;
+			moves++;
+			int orientation = code / width;
+			if (orientation >= SolutionWriter.ORIENTATION_IDEN.length)
+				return MALFORMED;
+			return Move.pack(SolutionWriter.ORIENTATION_IDEN[orientation], SolutionWriter.ORIENTATION_ROTATE[orientation], code % width);
+		}
+
+		//skip blank lines
+		int b = nextByte();
+		while (b == '\n' || b == '\r' || b == ' ' || b == '\t') {
+			b = nextByte();
+		}
+		if (b < 0)
+			return END;
+		moves++;
+		//then three numbers and nothing more on the line
+		last = b;
+		int iden = number(true);
+		int rotate = iden < 0 ? -1 : number(true);
+		int pos = rotate < 0 ? -1 : number(false);
+		if (pos < 0)
+			return skipLine(last);
+		return Move.pack(iden, rotate, pos);
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+
+	/*************************************************************************
+	 *                       PRIVATE HELPER METHODS                          *
+	 *************************************************************************/
+
+	/**
+	 * Parses a number of a text move starting at the last byte read, and the
+	 * spaces after it
+	 * @param more whether another number follows it on the line
+	 * @return the number, or -1 if there is no number there, it does not fit a
+	 * 	byte, or it is not followed by what should follow it
+	 * @throws IOException if the file cannot be read
+	 */
+	private int number(boolean more) throws IOException {
+		int b = last;
+		if (b < '0' || b > '9')
+			return -1;
+		int value = 0;
+		while (b >= '0' && b <= '9') {
+			value = value * 10 + (b - '0');
+			b = nextByte();
+			if (value > 0xFF) {
+				last = b;
+				return -1;
+			}
+		}
+		if (more) {
+			//another number must follow after at least one space
+			if (b != ' ' && b != '\t') {
+				last = b;
+				return -1;
+			}
+			while (b == ' ' || b == '\t') {
+				b = nextByte();
+			}
+		} else {
+			//only spaces may follow, up to the end of the line
+			while (b == ' ' || b == '\t' || b == '\r') {
+				b = nextByte();
+			}
+			if (b != '\n' && b >= 0) {
+				last = b;
+				return -1;
+			}
+		}
+		last = b;
+		return value;
+	}
+
+	/**
+	 * Skips the rest of a line that is not a move
+	 * @param b the byte just read
+	 * @return MALFORMED
+	 * @throws IOException if the file cannot be read
+	 */
+	private int skipLine(int b) throws IOException {
+		while (b != '\n' && b >= 0) {
+			b = nextByte();
+		}
+		return MALFORMED;
+	}
+
+	/**
+	 * Reads the next byte of the file
+	 * @return the byte, from 0 to 255, or -1 at the end of the file
+	 * @throws IOException if the file cannot be mapped
+	 */
+	private int nextByte() throws IOException {
+		if (next == limit && !advance())
+			return -1;
+		return window.get(next++) & 0xFF;
+	}
+
+	/**
+	 * Reads a byte near the start of the file without moving past it, mapping
+	 * the first window if need be
+	 * @param index the index of the byte, within the first window
+	 * @return the byte
+	 * @throws IOException if the file cannot be mapped
+	 */
+	private int peek(int index) throws IOException {
+		if (window == null)
+			advance();
+		next = index + 1;
+		return window.get(index) & 0xFF;
+	}
+
+	/**
+	 * Maps the window after the current one
+	 * @return false if the end of the file has been reached
+	 * @throws IOException if the file cannot be mapped
+	 */
+	private boolean advance() throws IOException {
+		start += limit;
+		if (start >= size)
+			return false;
+		limit = (int) Math.min(WINDOW_BYTES, size - start);
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, limit);
+		next = 0;
+		return true;
+	}
+}
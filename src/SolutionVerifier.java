@@ -0,0 +1,421 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * AI4211 Project
+ * Replays a solution against the pieces it was played from and reports the
+ * final height, the lines cleared and every move that could not have been
+ * played. The moves are played by a placement of its own rather than the
+ * solver's Board, keeping every row of the stack and dropping each piece row
+ * by row until it meets the stack, so a fault in the solver's board, or in
+ * the rows it seals away, shows up as a different height or line count.
+ *
+ * A move must play the incoming piece, or one of the pieces held in the
+ * buffer, which the incoming piece then takes the place of. The first pieces
+ * of the input fill the buffer, as many as it holds, and once the input has run
+ * out the pieces still held are played in any order. A position past the
+ * right wall plays the piece against it. A move that breaks these rules, or is
+ * not a move at all, is reported and skipped without playing anything, and
+ * every piece left unplayed at the end is reported.
+ *
+ * Each pair of files is replayed on its own, so many pairs are verified at
+ * once, one to a thread
+ */
+public class SolutionVerifier {
+
+	/**
+	 * The most illegal moves described in a report, though all are counted
+	 */
+	private final static int MAX_REPORTED = 10;
+
+	/**
+	 * The input file, of pieces
+	 */
+	private final Path input;
+
+	/**
+	 * The solution file, of moves, in text or binary
+	 */
+	private final Path solution;
+
+	/**
+	 * The width of the board a text solution was played on. A binary solution
+	 * says its own
+	 */
+	private final int width;
+
+	/**
+	 * The number of pieces the buffer held
+	 */
+	private final int slots;
+
+	/**
+	 * The number of moves played
+	 */
+	private long played = 0;
+
+	/**
+	 * The number of lines cleared
+	 */
+	private long lines = 0;
+
+	/**
+	 * The height of the stack once every move has been played
+	 */
+	private long height = 0;
+
+	/**
+	 * The number of moves that could not have been played
+	 */
+	private long illegal = 0;
+
+	/**
+	 * The number of pieces of the input no move played
+	 */
+	private long unplayed = 0;
+
+	/**
+	 * The first MAX_REPORTED illegal moves, described
+	 */
+	private final List<String> problems = new ArrayList<String>();
+
+	/**
+	 * Why the files could not be verified, or null
+	 */
+	private String failure = null;
+	
+	/**
+	 * Every row of the stack as a mask of its filled cells, the floor first.
+	 * Grows as the stack does
+	 */
+	private int[] stack = new int[64];
+	
+	/**
+	 * The number of rows up to the highest filled cell
+	 */
+	private int top = 0;
+
+	/**
+	 * Creates a verifier for a solution
+	 * @param input the input file, of pieces
+	 * @param solution the solution file
+	 * @param width the width of the board a text solution was played on
+	 * @param slots the number of pieces the buffer held
+	 */
+	public SolutionVerifier(Path input, Path solution, int width, int slots) {
+		this.input = input;
+		this.solution = solution;
+		this.width = width;
+		this.slots = slots;
+	}
+
+	/*************************************************************************
+	 *                           PUBLIC METHODS                              *
+	 *************************************************************************/
+
+	/**
+	 * Replays the solution against the input
+	 * @return this verifier, holding the results
+	 */
+	public SolutionVerifier verify() {
+		try (PieceSource pieces = TetrisSolver.openInFile(input.toString());
+				SolutionReader reader = new SolutionReader(solution)) {
+			replay(pieces, reader);
+		} catch (NoSuchFileException e) {
+			failure = e.getFile() + " does not exist";
+		} catch (IOException | RuntimeException e) {
+			failure = e.getMessage() == null ? e.toString() : e.getMessage();
+		}
+		return this;
+	}
+
+	/**
+	 * Returns whether the solution is a legal and complete play of the input
+	 * @return true if every move was legal and every piece played
+	 */
+	public boolean passed() {
+		return failure == null && illegal == 0 && unplayed == 0;
+	}
+
+	/**
+	 * Describes the results, one line with the totals then one line for each
+	 * problem found
+	 * @return the report
+	 */
+	public String report() {
+		StringBuilder report = new StringBuilder(input + " " + solution + ": ");
+		if (failure != null)
+			return report.append("ERROR ").append(failure).toString();
+		report.append(passed() ? "OK" : "FAILED");
+		report.append(String.format(", %d moves, %d lines cleared, final height %d", played, lines, height));
+		if (illegal > 0)
+			report.append(", ").append(illegal).append(" illegal moves");
+		if (unplayed > 0)
+			report.append(", ").append(unplayed).append(" pieces unplayed");
+		for (String problem : problems) {
+			report.append(System.lineSeparator()).append("  ").append(problem);
+		}
+		if (illegal > problems.size())
+			report.append(System.lineSeparator()).append("  ...");
+		return report.toString();
+	}
+
+	/*************************************************************************
+	 *                       PRIVATE HELPER METHODS                          *
+	 *************************************************************************/
+
+	/**
+	 * Plays every move of the solution that is legal, checking it against the
+	 * pieces on hand
+	 * @param pieces the input
+	 * @param reader the solution
+	 * @throws IOException if either file cannot be read
+	 */
+	private void replay(PieceSource pieces, SolutionReader reader) throws IOException {
+		int columns = reader.binary() ? reader.width() : width;
+		int full = (1 << columns) - 1;
+		//the buffer only matters as a count of each piece, not its order
+		int[] held = new int[8];
+		int holding = 0;
+		int piece;
+		while (holding < slots && (piece = pieces.nextPiece()) != -1) {
+			held[piece]++;
+			holding++;
+		}
+		int incoming = holding == slots ? pieces.nextPiece() : -1;
+
+		int move;
+		while ((move = reader.nextMove()) != SolutionReader.END) {
+			if (move == SolutionReader.MALFORMED) {
+				illegal(reader.moves(), "is not a move");
+				continue;
+			}
+			int iden = Move.iden(move);
+			int rotate = Move.rotate(move);
+			int pos = Move.pos(move);
+			//a position past the right wall is played against it, as the solver does
+			if (iden < 1 || iden > 7 || rotate > 3) {
+				illegal(reader.moves(), iden + " " + rotate + " " + pos + " is not a move");
+				continue;
+			}
+			//play the incoming piece, or a held one for it to take the place of
+			if (iden == incoming) {
+				incoming = pieces.nextPiece();
+			} else if (held[iden] > 0) {
+				held[iden]--;
+				if (incoming != -1) {
+					held[incoming]++;
+					incoming = pieces.nextPiece();
+				} else {
+					holding--;
+				}
+			} else {
+				illegal(reader.moves(), iden + " " + rotate + " " + pos + " plays a piece that is neither incoming nor held");
+				continue;
+			}
+			lines += drop(iden, rotate, pos, columns, full);
+			played++;
+		}
+
+		height = top;
+		unplayed = holding;
+		if (incoming != -1)
+			unplayed += 1 + pieces.skip(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Drops a piece onto the stack from above until it meets the stack or the
+	 * floor, then clears every row it filled. A position too far right for the
+	 * rotation is moved back against the right wall, and the rotation counts
+	 * round the distinct rotations of the piece, as the solver writes them
+	 * @param iden the identity of the piece
+	 * @param rotate the rotation
+	 * @param pos the position, from the left wall
+	 * @param columns the width of the board
+	 * @param full the mask of a full row
+	 * @return the number of rows cleared
+	 */
+	private int drop(int iden, int rotate, int pos, int columns, int full) {
+		int[] shape = Pieces.MASKS[iden][rotate % Pieces.MASKS[iden].length];
+		int shapeWidth = 32 - Integer.numberOfLeadingZeros(shapeMask(shape));
+		pos = Math.min(pos, columns - shapeWidth);
+		if (top + shape.length > stack.length)
+			stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + shape.length));
+
+		//fall from just above the stack while the row below is free
+		int row = top;
+		while (row > 0 && fits(shape, pos, row - 1)) {
+			row--;
+		}
+		for (int r = 0; r < shape.length; r++) {
+			stack[row + r] |= shape[r] << pos;
+		}
+		top = Math.max(top, row + shape.length);
+
+		//take out the full rows, highest first so the lower ones stay put
+		int cleared = 0;
+		for (int r = row + shape.length - 1; r >= row; r--) {
+			if (stack[r] == full) {
+				System.arraycopy(stack, r + 1, stack, r, top - r - 1);
+				stack[--top] = 0;
+				cleared++;
+			}
+		}
+		while (top > 0 && stack[top - 1] == 0) {
+			top--;
+		}
+		return cleared;
+	}
+
+	/**
+	 * Returns whether a piece overlaps no filled cell when its bottom row is at a
+	 * given row
+	 * @param shape the row masks of the piece, against the left wall
+	 * @param pos the position, from the left wall
+	 * @param row the row of the bottom of the piece
+	 * @return true if every cell of the piece is free
+	 */
+	private boolean fits(int[] shape, int pos, int row) {
+		for (int r = 0; r < shape.length && row + r < top; r++) {
+			if ((stack[row + r] & (shape[r] << pos)) != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns every column a piece covers in any of its rows
+	 * @param shape the row masks of the piece, against the left wall
+	 * @return the mask of its columns
+	 */
+	private static int shapeMask(int[] shape) {
+		int mask = 0;
+		for (int bits : shape) {
+			mask |= bits;
+		}
+		return mask;
+	}
+
+	/**
+	 * Counts a move that could not have been played, describing it if not too
+	 * many have been already
+	 * @param number the number of the move in the solution
+	 * @param problem what is wrong with it
+	 */
+	private void illegal(long number, String problem) {
+		if (illegal++ < MAX_REPORTED)
+			problems.add("move " + number + ": " + problem);
+	}
+
+	/**
+	 * Pairs each input in a directory with the solution of the same name in
+	 * another, as the solver's batch mode names them
+	 * @param inputs the directory of inputs
+	 * @param outputs the directory of solutions
+	 * @param width the width of the board text solutions were played on
+	 * @param slots the number of pieces the buffer held
+	 * @param verifiers the list to add a verifier for each pair to
+	 * @throws IOException if either directory cannot be read
+	 */
+	private static void pairDirectories(Path inputs, Path outputs, int width, int slots, List<SolutionVerifier> verifiers)
+			throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		try (DirectoryStream<Path> directory = Files.newDirectoryStream(inputs)) {
+			for (Path file : directory) {
+				if (Files.isRegularFile(file))
+					files.add(file);
+			}
+		}
+		files.sort(null);
+		for (Path file : files) {
+			verifiers.add(new SolutionVerifier(file, outputs.resolve(file.getFileName()), width, slots));
+		}
+	}
+
+	/*************************************************************************
+	 *                             MAIN METHOD                               *
+	 *************************************************************************/
+
+	public static void main(String args[]) throws InterruptedException {
+		int width = TetrisSolver.GRID_WIDTH;
+		int slots = TetrisSolver.BUFFER_SIZE;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<SolutionVerifier> verifiers = new ArrayList<SolutionVerifier>();
+		try {
+			int a = 0;
+			for (; a + 1 < args.length && args[a].startsWith("--"); a += 2) {
+				if (args[a].equals("--width")) {
+					width = Integer.parseInt(args[a+1]);
+				} else if (args[a].equals("--buffer")) {
+					slots = Integer.parseInt(args[a+1]);
+				} else if (args[a].equals("--threads")) {
+					threads = Integer.parseInt(args[a+1]);
+				} else if (args[a].equals("--batch") && a + 3 == args.length) {
+					pairDirectories(Paths.get(args[a+1]), Paths.get(args[a+2]), width, slots, verifiers);
+					a++;
+				} else {
+					throw new IllegalArgumentException("Unknown option");
+				}
+			}
+			if (verifiers.isEmpty()) {
+				if (a == args.length || (args.length - a) % 2 != 0)
+					throw new IllegalArgumentException("Inputs and solutions must come in pairs");
+				for (; a < args.length; a += 2) {
+					verifiers.add(new SolutionVerifier(Paths.get(args[a]), Paths.get(args[a+1]), width, slots));
+				}
+			}
+			if (width < Board.MIN_WIDTH || width > Board.MAX_WIDTH || threads < 1
+					|| slots < 0 || slots > TetrisSolver.MAX_BUFFER_SIZE)
+				throw new IllegalArgumentException("Invalid width, buffer or threads");
+		} catch (IllegalArgumentException e) {
+			System.out.println("Usage: java SolutionVerifier [--width columns] [--buffer slots] [--threads n] input solution [input solution...]");
+			System.out.println("       java SolutionVerifier [--width columns] [--buffer slots] [--threads n] --batch inputdir outputdir");
+			return;
+		} catch (IOException e) {
+			System.out.println("Failed to read the directories: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		long start = System.nanoTime();
+		//no more threads than there are pairs to verify
+		int poolSize = Math.min(threads, verifiers.size());
+		ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+		List<Future<SolutionVerifier>> results = new ArrayList<Future<SolutionVerifier>>();
+		for (SolutionVerifier verifier : verifiers) {
+			results.add(pool.submit(verifier::verify));
+		}
+		pool.shutdown();
+
+		//report in the order given, as each is done
+		int failed = 0;
+		long moves = 0;
+		try {
+			for (Future<SolutionVerifier> result : results) {
+				SolutionVerifier verifier = result.get();
+				System.out.println(verifier.report());
+				moves += verifier.played;
+				if (!verifier.passed())
+					failed++;
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("A verifier failed", e.getCause());
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%d of %d solutions passed, %d moves in %.1fs on %d threads (%.0f moves/s)",
+			verifiers.size() - failed, verifiers.size(), moves, seconds, poolSize, moves / seconds));
+		if (failed > 0)
+			System.exit(1);
+	}
+}
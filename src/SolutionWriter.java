@@ -0,0 +1,473 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * AI4211 Project
+ * Writes moves to a channel as they are played, through one reusable byte
+ * buffer that is flushed whenever it fills. Moves are written either as text,
+ * one "iden rotate pos" line each with the digits put straight into the buffer,
+ * or in a packed binary format of one byte per move.
+ *
+ * The binary format starts with the 4 byte magic "TSB1" and a byte holding the
+ * width of the board. Each move is then the number of its piece and rotation
+ * among all 19 distinct rotations, times the width, plus its position, which
+ * fits a byte for boards up to 13 columns wide.
+ *
+ * Once writeInBackground is called, each full buffer is handed to a background
+ * thread to be written out while the next is filled. Only BACKGROUND_BUFFERS
+ * buffers exist, so a game that outruns the disk waits for a free one.
+ *
+ * Run on its own, converts a solution between the two formats:
+ * java SolutionWriter --text solution.bin solution.txt
+ * java SolutionWriter --binary [--width columns] solution.txt solution.bin
+ */
+public class SolutionWriter implements Closeable, Flushable {
+
+	/**
+	 * The magic bytes opening a binary solution
+	 */
+	final static byte[] MAGIC = {'T', 'S', 'B', '1'};
+
+	/**
+	 * The widest board a binary solution can be written for
+	 */
+	final static int MAX_BINARY_WIDTH = 13;
+
+	/**
+	 * The bytes buffered before they are written to the channel
+	 */
+	private final static int BUFFER_BYTES = 64 * 1024;
+
+	/**
+	 * The number of buffers in use when writing in the background
+	 */
+	private final static int BACKGROUND_BUFFERS = 4;
+
+	/**
+	 * The line separator written after every text move
+	 */
+	private final static byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * The number of every piece's first rotation among all the distinct rotations
+	 * of all the pieces, indexed by iden
+	 */
+	private final static int[] FIRST_ORIENTATION = new int[8];
+
+	/**
+	 * The piece and rotation of each of the distinct rotations, in order
+	 */
+	final static int[] ORIENTATION_IDEN, ORIENTATION_ROTATE;
+
+	static {
+		int n = 0;
+		for (int iden = 1; iden < FIRST_ORIENTATION.length; iden++) {
+			FIRST_ORIENTATION[iden] = n;
+			n += Pieces.rotations(iden);
+		}
+		ORIENTATION_IDEN = new int[n];
+		ORIENTATION_ROTATE = new int[n];
+		for (int iden = 1; iden < FIRST_ORIENTATION.length; iden++) {
+			for (int r = 0; r < Pieces.rotations(iden); r++) {
+				ORIENTATION_IDEN[FIRST_ORIENTATION[iden] + r] = iden;
+				ORIENTATION_ROTATE[FIRST_ORIENTATION[iden] + r] = r;
+			}
+		}
+	}
+
+	/**
+	 * Where the moves go
+	 */
+	private final WritableByteChannel channel;
+
+	/**
+	 * The moves not yet written to the channel
+	 */
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+	/**
+	 * Whether to write the binary format
+	 */
+	private final boolean binary;
+
+	/**
+	 * The width of the board, for the binary format
+	 */
+	private final int width;
+
+	/**
+	 * The number of bytes written out to the channel so far
+	 */
+	private long written;
+
+	/**
+	 * Writes the full buffers out when writing in the background, or null
+	 */
+	private ExecutorService background = null;
+
+	/**
+	 * The buffers free to be filled when writing in the background
+	 */
+	private BlockingQueue<ByteBuffer> free;
+
+	/**
+	 * The last buffer handed to the background thread, or null
+	 */
+	private Future<?> last = null;
+
+	/**
+	 * The first background write that failed, or null
+	 */
+	private volatile IOException failure = null;
+
+	/**
+	 * Creates a solution writer over a channel, writing the binary header at once
+	 * @param channel where to write the moves
+	 * @param binary true for the binary format, false for text
+	 * @param width the width of the board the moves are played on
+	 * @throws IOException if the header cannot be written
+	 * @throws IllegalArgumentException if the board is too wide for the binary format
+	 */
+	public SolutionWriter(WritableByteChannel channel, boolean binary, int width) throws IOException {
+		this(channel, binary, width, 0);
+	}
+
+	/**
+	 * Creates a solution writer over a channel that already holds the start of
+	 * a solution
+	 * @param channel where to write the moves, positioned after those already written
+	 * @param binary true for the binary format, false for text
+	 * @param width the width of the board the moves are played on
+	 * @param written the number of bytes of the solution already written, 0 to
+	 * 	start a new solution with its header
+	 * @throws IllegalArgumentException if the board is too wide for the binary format
+	 */
+	private SolutionWriter(WritableByteChannel channel, boolean binary, int width, long written) {
+		if (binary && width > MAX_BINARY_WIDTH)
+			throw new IllegalArgumentException("Binary solutions only fit boards up to " + MAX_BINARY_WIDTH + " wide");
+		this.channel = channel;
+		this.binary = binary;
+		this.width = width;
+		this.written = written;
+		if (binary && written == 0) {
+			buffer.put(MAGIC);
+			buffer.put((byte) width);
+		}
+	}
+
+	/**
+	 * Opens a solution writer over a file, or over standard output
+	 * @param filename the name of the output file, or "-" for standard output.
+	 * 	If it does exist, it rewrites it
+	 * @param binary true for the binary format, false for text
+	 * @param width the width of the board the moves are played on
+	 * @return the solution writer
+	 * @throws IOException if the output file is unable for access
+	 */
+	public static SolutionWriter open(String filename, boolean binary, int width) throws IOException {
+		if (filename.equals("-")) {
+			return new SolutionWriter(Channels.newChannel(System.out), binary, width);
+		}
+		FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		return new SolutionWriter(channel, binary, width);
+	}
+
+	/**
+	 * Opens a solution writer over a file that already holds the start of a
+	 * solution, throwing away anything after it so that the moves written next
+	 * carry straight on from it
+	 * @param filename the name of the output file
+	 * @param binary true for the binary format, false for text
+	 * @param width the width of the board the moves are played on
+	 * @param offset the number of bytes of the file to keep
+	 * @return the solution writer
+	 * @throws IOException if the output file is unable for access, or is shorter than offset
+	 */
+	public static SolutionWriter append(String filename, boolean binary, int width, long offset) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE);
+		try {
+			if (channel.size() < offset)
+				throw new IOException(filename + " is shorter than the solution it should hold");
+			channel.truncate(offset);
+			channel.position(offset);
+			return new SolutionWriter(channel, binary, width, offset);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a solution writer that throws every move away
+	 * @param width the width of the board the moves are played on
+	 * @return the solution writer
+	 * @throws IOException never
+	 */
+	public static SolutionWriter discard(int width) throws IOException {
+		return new SolutionWriter(Channels.newChannel(OutputStream.nullOutputStream()), false, width);
+	}
+
+	/**
+	 * Writes every full buffer out on a background thread from now on, so that
+	 * moves are encoded while earlier ones are being written
+	 */
+	public void writeInBackground() {
+		if (background != null)
+			return;
+		free = new ArrayBlockingQueue<ByteBuffer>(BACKGROUND_BUFFERS);
+		for (int i = 1; i < BACKGROUND_BUFFERS; i++) {
+			free.add(ByteBuffer.allocateDirect(BUFFER_BYTES));
+		}
+		background = Executors.newSingleThreadExecutor(task -> {
+			Thread thread = new Thread(task, "solution writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Writes a move
+	 * @param move the move, packed by Move.pack
+	 * @throws IOException if the buffer is full and cannot be written out
+	 */
+	public void write(int move) throws IOException {
+		if (buffer.remaining() < 16)
+			drain();
+		int iden = Move.iden(move);
+		int rotate = Move.rotate(move);
+		int pos = Move.pos(move);
+		if (binary) {
+			buffer.put((byte) ((FIRST_ORIENTATION[iden] + rotate) * width + pos));
+			return;
+		}
+		buffer.put((byte) ('0' + iden));
+		buffer.put((byte) ' ');
+		buffer.put((byte) ('0' + rotate));
+		buffer.put((byte) ' ');
+		if (pos >= 10)
+			buffer.put((byte) ('0' + pos / 10));
+		buffer.put((byte) ('0' + pos % 10));
+		buffer.put(NEWLINE);
+	}
+
+	/**
+	 * Writes every buffered move out to the channel
+	 * @throws IOException if the moves cannot be written
+	 */
+	@Override
+	public void flush() throws IOException {
+		drain();
+		//the background thread writes the buffers in turn, so once the last is
+		//written every one is
+		if (last != null) {
+			try {
+				last.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while writing the solution");
+			} catch (ExecutionException e) {
+				throw new IOException("Failed to write the solution", e.getCause());
+			}
+			if (failure != null)
+				throw failure;
+		}
+		if (channel instanceof FileChannel)
+			return;
+		//standard output is flushed so that a reader sees every move so far
+		if (channel.isOpen())
+			System.out.flush();
+	}
+
+	/**
+	 * Returns the size of the solution so far, counting the buffered moves
+	 * @return the number of bytes
+	 */
+	public long position() {
+		return written + buffer.position();
+	}
+
+	/**
+	 * Forces every move written out to the channel onto storage, if the channel
+	 * is a file. Safe to call from another thread while moves are written
+	 * @throws IOException if the file cannot be forced
+	 */
+	public void force() throws IOException {
+		if (channel instanceof FileChannel && channel.isOpen())
+			((FileChannel) channel).force(false);
+	}
+
+	/**
+	 * Flushes the buffered moves and closes the channel, unless it is standard output
+	 * @throws IOException if the moves cannot be written
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			if (background != null)
+				background.shutdown();
+			if (channel instanceof FileChannel)
+				channel.close();
+		}
+	}
+
+	/*************************************************************************
+	 *                       PRIVATE HELPER METHODS                          *
+	 *************************************************************************/
+
+	/**
+	 * Writes the whole buffer out to the channel and empties it. In the
+	 * background, the buffer is handed over and a free one taken in its place
+	 * @throws IOException if the buffer cannot be written, or a background write failed
+	 */
+	private void drain() throws IOException {
+		if (background != null) {
+			handOver();
+			return;
+		}
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			written += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Hands the buffer to the background thread to be written out, and waits
+	 * for a free buffer to fill next
+	 * @throws IOException if a background write failed
+	 */
+	private void handOver() throws IOException {
+		if (failure != null)
+			throw failure;
+		if (buffer.position() == 0)
+			return;
+		ByteBuffer full = buffer;
+		full.flip();
+		written += full.remaining();
+		last = background.submit(() -> {
+			try {
+				while (full.hasRemaining()) {
+					channel.write(full);
+				}
+			} catch (IOException e) {
+				if (failure == null)
+					failure = e;
+			}
+			full.clear();
+			free.add(full);
+		});
+		try {
+			buffer = free.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing the solution");
+		}
+	}
+
+	/**
+	 * Converts a binary solution to text
+	 * @param in the binary solution
+	 * @param out the text solution to write
+	 * @throws IOException if either file cannot be accessed, or the input is not
+	 * 	a binary solution
+	 */
+	private static void toText(Path in, Path out) throws IOException {
+		try (SolutionReader reader = new SolutionReader(in);
+				SolutionWriter writer = open(out.toString(), false, 0)) {
+			if (!reader.binary())
+				throw new IOException(in + " is not a binary solution");
+			int move;
+			while ((move = reader.nextMove()) != SolutionReader.END) {
+				if (move == SolutionReader.MALFORMED)
+					throw new IOException(in + " holds a move that is not valid at move " + reader.moves());
+				writer.write(move);
+			}
+		}
+	}
+
+	/**
+	 * Converts a text solution to binary
+	 * @param in the text solution
+	 * @param out the binary solution to write
+	 * @param width the width of the board the moves were played on
+	 * @throws IOException if either file cannot be accessed, or a line is not a move
+	 */
+	private static void toBinary(Path in, Path out, int width) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(in, StandardCharsets.US_ASCII);
+				SolutionWriter writer = open(out.toString(), true, width)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isBlank())
+					continue;
+				String[] parts = line.trim().split("\\s+");
+				int iden, rotate, pos;
+				try {
+					iden = Integer.parseInt(parts[0]);
+					//rotations past the last distinct one wrap around, as when played
+					rotate = Integer.parseInt(parts[1]) % Pieces.rotations(iden);
+					pos = Integer.parseInt(parts[2]);
+				} catch (RuntimeException e) {
+					throw new IOException("Not a move: " + line);
+				}
+				if (parts.length != 3 || rotate < 0 || pos < 0 || pos >= width)
+					throw new IOException("Not a move on a board " + width + " wide: " + line);
+				writer.write(Move.pack(iden, rotate, pos));
+			}
+		}
+	}
+
+	/*************************************************************************
+	 *                             MAIN METHOD                               *
+	 *************************************************************************/
+
+	public static void main(String args[]) {
+		boolean text = args.length == 3 && args[0].equals("--text");
+		boolean binary = args.length >= 3 && args[0].equals("--binary");
+		int width = TetrisSolver.GRID_WIDTH;
+		int a = 1;
+		try {
+			if (binary && args[1].equals("--width")) {
+				width = Integer.parseInt(args[2]);
+				a = 3;
+			}
+		} catch (NumberFormatException e) {
+			binary = false;
+		}
+		if (!(text || binary && args.length - a == 2)) {
+			System.out.println("Usage: java SolutionWriter --text solution.bin solution.txt");
+			System.out.println("       java SolutionWriter --binary [--width columns] solution.txt solution.bin");
+			return;
+		}
+		try {
+			if (text) {
+				toText(Paths.get(args[1]), Paths.get(args[2]));
+			} else {
+				toBinary(Paths.get(args[a]), Paths.get(args[a+1]), width);
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			System.out.println("Failed to convert file: " + e.getMessage());
+		}
+	}
+}
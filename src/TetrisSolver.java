@@ -1,11 +1,20 @@
-
-import java.io.BufferedReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
 
 /**
  * AI4211 Project
@@ -22,58 +31,477 @@ public class TetrisSolver {
 	 *************************************************************************/
 	
 	/**
-	 * The width of the tetris grid. Default set to 11
+	 * The width of the tetris grid. Default set to 11, and can be changed for
+	 * each solver with setWidth
 	 */
 	final static int GRID_WIDTH = 11;
 	
 	/**
-	 * The cap on the amount of pieces to be delivered from the open end of the board
-	 * Set to 1000 on default, can be altered at any time
+	 * The initial room for pieces to be delivered from the open end of the board,
+	 * grown whenever the input holds more. Set to 1000 on default, can be altered
+	 * at any time
 	 */
 	final static int N_PIECES = 1001;
 	
 	/**
-	 * The size of the buffer
+	 * The size of the buffer, unless set with setBuffer
 	 */
 	final static int BUFFER_SIZE = 1;
 	
-	/*************************************************************************
-	 *                         STATIC VARIABLES                              *
-	 *************************************************************************/
+	/**
+	 * The most pieces the buffer can be set to hold
+	 */
+	final static int MAX_BUFFER_SIZE = 16;
 	
 	/**
-	 * The height of the tetris grid. Technically semi-infinite but actually set
-	 * dynamically to be of worse-case scenario, so the height will never be 
-	 * exceeded
+	 * The height of the tetris grid searched. Technically semi-infinite, but
+	 * rows buried under every column are sealed off, so only a window above them
+	 * is searched. The window grows if the stack ever rises past this
 	 */
-	private static int GRID_HEIGHT;
+	final static int GRID_HEIGHT = 64;
 	
 	/**
-	 * My Tetris grid, storing the state of the current game
+	 * The seconds between snapshots of a streamed game, unless set with
+	 * setCheckpoint
 	 */
-	private static boolean[][] grid;
+	final static int CHECKPOINT_SECONDS = 5;
 	
 	/**
-	 * The buffer, holding up the BUFFER_SIZE pieces at one time
+	 * The most pieces read ahead of the game when pipelined
 	 */
-	private static int[] buffer = new int[BUFFER_SIZE];
+	final static int RING_PIECES = 1 << 16;
+	
+	/**
+	 * The bits below the bound of a candidate in candOrder, holding its index,
+	 * far more than the most candidates there can be
+	 */
+	private final static int ORDER_SHIFT = 24;
+	
+	/**
+	 * The mask of the index of a candidate in candOrder
+	 */
+	private final static long ORDER_MASK = (1L << ORDER_SHIFT) - 1;
+	
+	/*************************************************************************
+	 *                        INSTANCE VARIABLES                             *
+	 *        Every solver plays its own game, so many can run at once        *
+	 *************************************************************************/
+	
+	/**
+	 * My Tetris grid, storing the state of the current game as a bitboard
+	 */
+	private Board grid;
+	
+	/**
+	 * The buffer, holding up to BUFFER_SIZE pieces at one time unless set with
+	 * setBuffer
+	 */
+	private int[] buffer = new int[BUFFER_SIZE];
 
 	/**
 	 * An integer array holding the all pieces to be placed on the board, data
 	 * and order extracted from the input file.
 	 */
-	private static int[] pieces = new int[N_PIECES];
+	private int[] pieces = new int[N_PIECES];
 	
 	/**
 	 * The count of total number of pieces to be placed
 	 */
-	private static int count = 0;
+	private int count = 0;
+	
+	/**
+	 * The processed pieces, packed by Move.pack, to be output into the output
+	 * file at the conclusion of runtime
+	 */
+	private int[] solution = new int[N_PIECES];
+	
+	/**
+	 * The number of moves in the solution
+	 */
+	private int moves = 0;
+	
+	/**
+	 * In streaming mode, the writer each processed piece is written to as soon as
+	 * it is played, instead of being held in the 'solution'. Null otherwise
+	 */
+	private SolutionWriter output = null;
+	
+	/**
+	 * Whether to write the solution in the packed binary format
+	 */
+	private boolean binary = false;
+	
+	/**
+	 * The number of columns of the grid
+	 */
+	private int width = GRID_WIDTH;
+	
+	/**
+	 * Whether to score the candidate moves, or expand the boards of the
+	 * lookahead, in parallel across a ForkJoin pool
+	 */
+	private boolean parallel = false;
+	
+	/**
+	 * The identity, rotation and position of every candidate move, and which of
+	 * the potential pieces it uses, when scoring in parallel. Reused every move
+	 */
+	private int[] candIden, candRotate, candPos, candUse;
+	
+	/**
+	 * The bound on the score of every candidate move, when searching the pieces
+	 * on hand. Reused every move
+	 */
+	private int[] candBound;
+	
+	/**
+	 * The candidate moves as a heap ordered best bound first, each packed by
+	 * order with its bound above its index, when searching the pieces on hand.
+	 * Reused every move
+	 */
+	private long[] candOrder;
+	
+	/**
+	 * The features of the grid before the move, to bound the candidates by
+	 */
+	private int[] base = new int[Evaluator.FEATURES];
+	
+	/**
+	 * The number of candidate moves scored by the last search of the pieces on hand
+	 */
+	private int scored = 0;
+	
+	/**
+	 * The distinct placements of every piece on the board, the candidate moves
+	 */
+	private MoveGenerator generator;
+	
+	/**
+	 * The incoming piece followed by the pieces in the buffer, the potential
+	 * pieces of a move. Reused every move
+	 */
+	private int[] use = new int[BUFFER_SIZE + 1];
+	
+	/**
+	 * The lookahead over the known upcoming pieces, or null to judge each move
+	 * on its own
+	 */
+	private BeamSearch lookahead = null;
+	
+	/**
+	 * The number of pieces the lookahead sees, including the incoming piece
+	 */
+	private int lookaheadDepth = 1;
+	
+	/**
+	 * The number of boards the lookahead carries from one piece to the next
+	 */
+	private int beamWidth = 8;
+	
+	/**
+	 * Whether the lookahead drops a board reached twice in one piece, to carry
+	 * on another in its place
+	 */
+	private boolean dedup = false;
+	
+	/**
+	 * The time budget of each move in nanoseconds, or 0 to always look as far
+	 * ahead as the lookahead depth
+	 */
+	private long deadlineNanos = 0;
+	
+	/**
+	 * The number of moves decided within a time budget
+	 */
+	private long anytimeMoves = 0;
+	
+	/**
+	 * The number of moves decided within a time budget that had their search
+	 * cut short by it
+	 */
+	private long cutoffs = 0;
+	
+	/**
+	 * The number of moves decided within a time budget by the depth they reached,
+	 * indexed by depth
+	 */
+	private long[] depthReached;
+	
+	/**
+	 * The cache of judged game states, or null to judge every state afresh
+	 */
+	private TranspositionTable table = null;
+	
+	/**
+	 * The memory the cache may use in megabytes, or 0 for no cache. The cache
+	 * is only made once a game starts
+	 */
+	private int tableMegabytes = 0;
+	
+	/**
+	 * The weight of each feature when judging a game state
+	 */
+	private int[] weights = Evaluator.LEGACY_WEIGHTS;
+	
+	/**
+	 * Judges game states with the weights, through the table
+	 */
+	private Evaluator evaluator = null;
+	
+	/**
+	 * The metrics collected as the game is played, or null to collect none
+	 */
+	private Metrics metrics = null;
+	
+	/**
+	 * The file to write the metrics to at the end of a game, set from the
+	 * command line
+	 */
+	private String metricsFile = null;
+	
+	/**
+	 * The Flight Recorder event of the move being played, reused for every move
+	 * as a solver plays on one thread at a time
+	 */
+	private final MoveEvent event = new MoveEvent();
+	
+	/**
+	 * The number of moves played this game, numbering the events
+	 */
+	private long played = 0;
+	
+	/**
+	 * The file snapshots of a streamed game are written to, or null to take none
+	 */
+	private String checkpointFile = null;
+	
+	/**
+	 * The time between snapshots of a streamed game, in nanoseconds
+	 */
+	private long checkpointNanos = CHECKPOINT_SECONDS * 1_000_000_000L;
+	
+	/**
+	 * Writes the snapshots while a game is streamed, or null
+	 */
+	private CheckpointWriter checkpoint = null;
+	
+	/**
+	 * The settings the moves of a game depend on, saved with every snapshot
+	 */
+	private int[] settings;
+	
+	/**
+	 * The snapshot file to resume a streamed game from, set from the command line
+	 */
+	private String resumeFile = null;
+	
+	/*************************************************************************
+	 *                          PUBLIC METHODS                               *
+	 *************************************************************************/
+	
+	/**
+	 * Sets whether to score the candidate moves in parallel, or with a lookahead
+	 * to expand the boards of each ply in parallel. The moves chosen are the same
+	 * @param parallel true to score them across a ForkJoin pool
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+	
+	/**
+	 * Sets whether to write the solution in the packed binary format of
+	 * SolutionWriter, rather than as text
+	 * @param binary true for one byte per move
+	 */
+	public void setBinary(boolean binary) {
+		this.binary = binary;
+	}
+	
+	/**
+	 * Sets the number of columns of the grid, GRID_WIDTH unless set
+	 * @param width the number of columns, from Board.MIN_WIDTH to Board.MAX_WIDTH
+	 */
+	public void setWidth(int width) {
+		if (width < Board.MIN_WIDTH || width > Board.MAX_WIDTH)
+			throw new IllegalArgumentException("Board width must be from " + Board.MIN_WIDTH + " to " + Board.MAX_WIDTH);
+		this.width = width;
+	}
+	
+	/**
+	 * Sets the number of pieces the buffer holds, BUFFER_SIZE unless set. Each
+	 * move plays the incoming piece or one of them, and the incoming piece takes
+	 * the place of the one played
+	 * @param slots the number of pieces, from 0 to MAX_BUFFER_SIZE
+	 */
+	public void setBuffer(int slots) {
+		if (slots < 0 || slots > MAX_BUFFER_SIZE)
+			throw new IllegalArgumentException("The buffer must hold from 0 to " + MAX_BUFFER_SIZE + " pieces");
+		buffer = new int[slots];
+		use = new int[slots + 1];
+	}
+	
+	/**
+	 * Sets how far to look ahead over the known upcoming pieces
+	 * @param depth the number of pieces to look ahead, 1 to judge each move on its own
+	 * @param width the number of boards to carry from one piece to the next
+	 */
+	public void setLookahead(int depth, int width) {
+		if (depth < 1 || width < 1)
+			throw new IllegalArgumentException("Lookahead needs a depth and width of at least 1");
+		lookaheadDepth = depth;
+		beamWidth = width;
+	}
+	
+	/**
+	 * Sets whether the lookahead keeps only the first of the boards it reaches
+	 * twice in one piece with the same buffer, carrying on the next best board
+	 * in place of the other. This changes the moves chosen
+	 * @param dedup true to drop the boards reached again
+	 */
+	public void setDedup(boolean dedup) {
+		this.dedup = dedup;
+	}
+	
+	/**
+	 * Sets a time budget for each move. The lookahead then deepens one piece at
+	 * a time, from judging each move on its own up to the lookahead depth, and
+	 * the move of the deepest search finished within the budget is played
+	 * @param nanos the budget in nanoseconds, or 0 for none
+	 */
+	public void setDeadline(long nanos) {
+		if (nanos < 0)
+			throw new IllegalArgumentException("A time budget cannot be negative");
+		deadlineNanos = nanos;
+	}
+	
+	/**
+	 * Sets the weights used to judge game states, Evaluator.LEGACY_WEIGHTS unless set
+	 * @param weights the weight of each feature, Evaluator.FEATURES of them
+	 */
+	public void setWeights(int[] weights) {
+		if (weights.length != Evaluator.FEATURES)
+			throw new IllegalArgumentException("Expected " + Evaluator.FEATURES + " weights");
+		this.weights = weights.clone();
+	}
+	
+	/**
+	 * Sets the memory for caching judged game states. The cache is made when
+	 * the next game starts, and kept for the games after it
+	 * @param megabytes the most memory the cache may use, or 0 for no cache
+	 */
+	public void setTable(int megabytes) {
+		table = null;
+		tableMegabytes = Math.max(megabytes, 0);
+	}
+	
+	/**
+	 * Sets the metrics to collect as the game is played
+	 * @param metrics the metrics to fill in, or null to collect none
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Sets where to write snapshots of a streamed game, so that it can be carried
+	 * on with resume if it is cut short. The rows sealed below the window are
+	 * spilled beside it, to a file of the same name ending .rows
+	 * @param file the name of the checkpoint file, or null to take no snapshots
+	 * @param seconds the seconds between snapshots
+	 */
+	public void setCheckpoint(String file, int seconds) {
+		if (seconds < 1)
+			throw new IllegalArgumentException("Snapshots must be at least a second apart");
+		checkpointFile = file;
+		checkpointNanos = seconds * 1_000_000_000L;
+	}
+	
+	/**
+	 * Returns the height of the whole stack, including the rows sealed below
+	 * the window, once the game has been played
+	 * @return the total height of the stack
+	 */
+	public long height() {
+		return grid == null ? 0 : grid.totalHeight();
+	}
+	
+	/**
+	 * Plays a whole game, reading every piece from the input file first and
+	 * writing the solution at the end. Each solver plays only one game
+	 * @param inFile the name of the input file
+	 * @param outFile the name of the output file
+	 * @throws IOException if the input file cannot be read or the output written
+	 */
+	public void solve(String inFile, String outFile) throws IOException {
+		//read the input file
+		readInFile(inFile);
+		//set the grid
+		setGrid();
+		//play tetris!
+		try {
+			playTetris();
+		} finally {
+			grid.close();
+		}
+		//write the solution to the output file
+		writeOutFile(outFile);
+	}
 	
 	/**
-	 * An array list holder for the list of processed pieces, to be output 
-	 * into the output file at the conclusion of runtime
+	 * Plays a whole game in streaming mode, for inputs of any length. Each solver
+	 * plays only one game
+	 * @param source the pieces to play
+	 * @param writer where each move is written as soon as it is played
+	 * @throws IOException if the pieces cannot be read or a move cannot be written
 	 */
-	private static ArrayList<String> solution = new ArrayList<String>();
+	public void stream(PieceSource source, SolutionWriter writer) throws IOException {
+		//set the grid
+		setGrid();
+		output = writer;
+		try (CheckpointWriter snapshots = openCheckpoint()) {
+			checkpoint = snapshots;
+			//play tetris!
+			streamTetris(source);
+			output.flush();
+		} finally {
+			grid.close();
+		}
+	}
+	
+	/**
+	 * Carries on a streamed game from a snapshot, making exactly the moves the
+	 * game would have gone on to make. Each solver plays only one game
+	 * @param from the snapshot, taken with the same settings
+	 * @param source the pieces to play from the start of the game. Those read
+	 * 	before the snapshot was taken are skipped
+	 * @param writer where each move is written, holding the solution up to the
+	 * 	snapshot
+	 * @throws IOException if the pieces cannot be read or a move cannot be written
+	 * @throws IllegalArgumentException if the snapshot was taken with other settings
+	 */
+	public void resume(Checkpoint from, PieceSource source, SolutionWriter writer) throws IOException {
+		//set the grid, then put the game back as it was
+		setGrid();
+		if (!Arrays.equals(from.settings, settings) || from.buffer.length != buffer.length
+				|| from.known > lookaheadDepth)
+			throw new IllegalArgumentException("The checkpoint was taken with other settings");
+		grid.close();
+		grid = from.board;
+		System.arraycopy(from.buffer, 0, buffer, 0, buffer.length);
+		int[] ahead = Arrays.copyOf(from.ahead, lookaheadDepth);
+		if (source.skip(from.inputOffset) != from.inputOffset)
+			throw new IOException("The input is shorter than the checkpoint");
+		output = writer;
+		try (CheckpointWriter snapshots = openCheckpoint()) {
+			checkpoint = snapshots;
+			//play the rest of the game
+			streamMoves(source, ahead, from.known, from.inputOffset);
+			clearFinalBuffer(buffer.length);
+			output.flush();
+		} finally {
+			grid.close();
+		}
+	}
 	
 	/*************************************************************************
 	 *                       PRIVATE HELPER METHODS                          *
@@ -84,22 +512,16 @@ public class TetrisSolver {
 	 * @param filename the name of the input file
 	 * @throws IOException if the input file does not exist or cannot be opened
 	 */
-	private static void readInFile(String filename) throws IOException {
-		Path path = Paths.get(filename);
-		
-		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
-			String line = null;
+	private void readInFile(String filename) throws IOException {
+		try (PieceSource source = openInFile(filename)) {
 			int counter = 0;
-			
-			while ((line = reader.readLine()) != null) {
-				int len = line.length();
-				
-				for (int i = 0; i < len; i++) {
-					char current = line.charAt(i);
-					
-					if (current >= '1' && current <= '7') {
-						pieces[counter++] = current - '0';
-					}
+			int n;
+			//read the pieces a chunk at a time, making room for more if the input
+			//is longer than expected
+			while ((n = source.read(pieces, counter, pieces.length - counter)) != -1) {
+				counter += n;
+				if (counter == pieces.length) {
+					pieces = Arrays.copyOf(pieces, counter * 2);
 				}
 			}
 			count = counter;
@@ -107,101 +529,196 @@ public class TetrisSolver {
 	}
 	
 	/**
-	 * Sets the height and initializes the grid
+	 * Initializes the grid, the evaluator, the candidate lists and the lookahead
+	 * if there is one
 	 */
-	private static void setGrid() {
-		GRID_HEIGHT = count * 4 / GRID_WIDTH;
-		grid = new boolean[GRID_WIDTH][GRID_HEIGHT];
+	private void setGrid() {
+		if (binary && width > SolutionWriter.MAX_BINARY_WIDTH)
+			throw new IllegalArgumentException("Binary solutions only fit boards up to " + SolutionWriter.MAX_BINARY_WIDTH + " wide");
+		grid = new Board(GRID_HEIGHT, width);
+		//a game that can be resumed keeps its sealed rows beside its snapshots
+		if (checkpointFile != null)
+			grid.spillTo(Paths.get(checkpointFile + ".rows"));
+		if (table == null && tableMegabytes > 0)
+			table = new TranspositionTable(tableMegabytes);
+		evaluator = new Evaluator(weights, table);
+		generator = new MoveGenerator(width);
+		int candidates = use.length * 4 * width;
+		candIden = new int[candidates];
+		candRotate = new int[candidates];
+		candPos = new int[candidates];
+		candUse = new int[candidates];
+		candBound = new int[candidates];
+		candOrder = new long[candidates];
+		if (lookaheadDepth > 1 || deadlineNanos > 0) {
+			lookahead = new BeamSearch(lookaheadDepth, beamWidth, width, buffer.length, evaluator, table, parallel, dedup);
+		}
+		depthReached = new long[lookaheadDepth + 1];
+		settings = settings();
 	}
 	
 	/**
-	 * Writes the solution to the output file
-	 * @param filename the name of the output file. Does not need to exist
+	 * Returns the settings the moves of a game depend on: the width, whether the
+	 * solution is binary, the lookahead depth and beam width, the size of the
+	 * buffer, whether the lookahead drops boards reached twice, then the weights
+	 * @return the settings, the width first
+	 */
+	private int[] settings() {
+		int[] values = new int[6 + Evaluator.FEATURES];
+		values[0] = width;
+		values[1] = binary ? 1 : 0;
+		values[2] = lookaheadDepth;
+		values[3] = beamWidth;
+		values[4] = buffer.length;
+		values[5] = dedup ? 1 : 0;
+		System.arraycopy(weights, 0, values, 6, Evaluator.FEATURES);
+		return values;
+	}
+	
+	/**
+	 * Opens the writer for snapshots of a streamed game
+	 * @return the writer, or null if no snapshots are to be taken
+	 */
+	private CheckpointWriter openCheckpoint() {
+		return checkpointFile == null ? null
+			: new CheckpointWriter(Paths.get(checkpointFile), new Checkpoint(settings, buffer.length, lookaheadDepth));
+	}
+	
+	/**
+	 * Takes a snapshot of the game between two moves, to be written in the
+	 * background. Only the window of the grid and the sealed rows held in memory
+	 * are copied, so it costs the same however tall the stack is
+	 * @param ahead the pieces read ahead, the incoming piece first
+	 * @param known the number of pieces read ahead
+	 * @param consumed the number of pieces read from the input
+	 * @return false if the last snapshot is still being written, so none was taken
+	 * @throws IOException if the moves so far cannot be written, or an earlier
+	 * 	snapshot failed to be written
+	 */
+	private boolean takeCheckpoint(int[] ahead, int known, long consumed) throws IOException {
+		Checkpoint snapshot = checkpoint.begin();
+		if (snapshot == null)
+			return false;
+		//every move the snapshot counts goes out to the file first
+		output.flush();
+		snapshot.take(grid, buffer, ahead, known, consumed, output.position());
+		checkpoint.commit(output, grid.buried);
+		return true;
+	}
+	
+	/**
+	 * Opens a piece source over the input file, in the packed piece format if it
+	 * starts with its magic and as text otherwise. A text file is memory-mapped
+	 * and its bytes scanned in place
+	 * @param filename the name of the input file, or "-" for standard input
+	 * @return the piece source
+	 * @throws IOException if the input file does not exist or cannot be opened
+	 */
+	static PieceSource openInFile(String filename) throws IOException {
+		if (filename.equals("-")) {
+			return PackedPieceReader.open(new BufferedInputStream(System.in));
+		}
+		Path path = Paths.get(filename);
+		if (PackedPieceReader.isPacked(path)) {
+			return new PackedPieceReader(path);
+		}
+		return new MappedPieceReader(path);
+	}
+	
+	/**
+	 * Opens the output file for streaming mode, so moves can be written as they
+	 * are played
+	 * @param filename the name of the output file, or "-" for standard output.
 	 * 	If it does exist, it rewrites it
+	 * @return the writer
 	 * @throws IOException if the output file is unable for access
 	 */
-	private static void writeOutFile(String filename) throws IOException {
-		Path path = Paths.get(filename);		
-		Files.write(path, solution, StandardCharsets.UTF_8);
+	private SolutionWriter openOutFile(String filename) throws IOException {
+		return SolutionWriter.open(filename, binary, width);
 	}
 	
 	/**
-	 * Copies the current game state and returns it
-	 * @return the copied game state
+	 * Writes the solution to the output file
+	 * @param filename the name of the output file. Does not need to exist
+	 * 	If it does exist, it rewrites it
+	 * @throws IOException if the output file is unable for access
 	 */
-	private static boolean[][] copyGrid() {
-		boolean[][] temp = new boolean[GRID_WIDTH][GRID_HEIGHT];
-		for (int j = GRID_HEIGHT - 1; j >= 0; j--) {
-			for (int i = 0; i < GRID_WIDTH; i++) {
-				temp[i][j] = grid[i][j];
+	private void writeOutFile(String filename) throws IOException {
+		try (SolutionWriter writer = openOutFile(filename)) {
+			for (int i = 0; i < moves; i++) {
+				writer.write(solution[i]);
 			}
 		}
-		return temp;
 	}
 	
 	/**
-	 * Reverts the current game state to the given game state
-	 * @param temp the original game state to return to
+	 * Tries a piece on the current game state, to be taken back with revertGrid
+	 * @param iden the identity of the piece
+	 * @param rotate the rotation
+	 * @param pos the position, from the left wall
 	 */
-	private static void revertGrid(boolean[][] temp) {
-		for (int j = GRID_HEIGHT - 1; j >= 0; j--) {
-			for (int i = 0; i < GRID_WIDTH; i++) {
-				grid[i][j] = temp[i][j];
-			}
-		}
+	private void tryPiece(int iden, int rotate, int pos) {
+		grid.apply(iden, rotate, pos);
 	}
 	
 	/**
-	 * Method to return the specific amount of rotations for a piece
-	 * @param pieceIden the identity of the piece
-	 * @return the total unique rotations
+	 * Reverts the current game state to before the last tried piece, restoring
+	 * only the cells and lines that piece changed
 	 */
-	private static int findNRotations(int pieceIden) {
-		int rotation = 1;
-		switch (pieceIden) {
-			case 1:
-				rotation = 2;
-				break;
-			case 2:
-				rotation = 1;
-				break;
-			case 3:
-				rotation = 4;
-				break;
-			case 4:
-				rotation = 4;
-				break;
-			case 5:
-				rotation = 4;
-				break;
-			case 6:
-				rotation = 2;
-				break;
-			case 7:
-				rotation = 2;
-				break;
-		}
-		return rotation;
+	private void revertGrid() {
+		grid.undo();
 	}
 	
 	/**
-	 * Loads the first BUFFER_SIZE pieces from pieces into the buffer
+	 * Loads the first pieces from pieces into the buffer, as many as it holds
 	 */
-	private static void loadInitialBuffer() {
-		for (int i = 0; i < BUFFER_SIZE; i++) {
+	private void loadInitialBuffer() {
+		for (int i = 0; i < Math.min(count, buffer.length); i++) {
 			buffer[i] = pieces[i];
 		}
 	}	
 	
 	/**
 	 * Plays the best judged move and adds it into the solution
-	 * @param bestMove
+	 * @param bestMove the move, packed by Move.pack
+	 * @throws IOException if the move cannot be written in streaming mode
 	 */
-	private static void playBestPiece(Move bestMove) {
+	private void playBestPiece(int bestMove) throws IOException {
 		//play the best scored processed move from all possibilities
-		placePiece(bestMove.iden, bestMove.rotate, bestMove.pos);
-		//store the move in the 'solution'
-		solution.add(bestMove.iden + " " + bestMove.rotate + " " + bestMove.pos);
+		int cleared;
+		try {
+			cleared = placePiece(Move.iden(bestMove), Move.rotate(bestMove), Move.pos(bestMove));
+			//the move is final, so seal off any rows now out of reach
+			grid.seal();
+		} catch (UncheckedIOException e) {
+			//the sealed rows could not be spilled or read back
+			throw e.getCause();
+		}
+		if (metrics != null) {
+			metrics.placed(cleared, grid.totalHeight());
+		}
+		if (event.isEnabled()) {
+			event.end();
+			if (event.shouldCommit()) {
+				event.move = played;
+				event.linesCleared = cleared;
+				event.height = grid.totalHeight();
+				event.commit();
+			}
+			event.candidates = 0;
+			event.decideNanos = 0;
+			event.swapped = false;
+		}
+		played++;
+		//store the move in the 'solution', or write it out straight away when streaming
+		if (output != null) {
+			output.write(bestMove);
+		} else {
+			if (moves == solution.length) {
+				solution = Arrays.copyOf(solution, moves * 2);
+			}
+			solution[moves++] = bestMove;
+		}
 		
 		//printGrid();
 	}
@@ -211,343 +728,20 @@ public class TetrisSolver {
 	 * @param iden the identity of the piece
 	 * @param rotate the rotation
 	 * @param pos the position, from the left wall
+	 * @return the number of lines cleared
 	 */
-	private static void placePiece(int iden, int rotate, int pos) {
-		int height;
-		switch (iden) {
-			//the I tetromino
-			case 1: 
-				//if original orientation
-				if (rotate % 2 == 0) {
-					//check the position, fix if necessary
-					if (pos >= GRID_WIDTH)
-						pos = GRID_WIDTH - 1;
-					//find appropriate height to place, within tetris 'original algorithm' gravity rules
-					height = GRID_HEIGHT - 4;
-					while (height > 0 && !grid[pos][height-1])
-						height--;
-					//finally, place the I tetromino piece
-					grid[pos][height] = true;
-					grid[pos][height+1] = true;
-					grid[pos][height+2] = true;
-					grid[pos][height+3] = true;
-				} else { // or rotated 90 degree anticlockwise
-					//check the position, fix if necessary
-					if (pos >= GRID_WIDTH - 3)
-						pos = GRID_WIDTH - 4;
-					//find appropriate height to place, within tetris 'original algorithm' gravity rules
-					height = GRID_HEIGHT-1;
-					while (height > 0 && !(grid[pos][height-1] || grid[pos+1][height-1] || grid[pos+2][height-1] || grid[pos+3][height-1]))
-						height--;
-					//finally, place the I tetromino piece
-					grid[pos][height] = true;
-					grid[pos+1][height] = true;
-					grid[pos+2][height] = true;
-					grid[pos+3][height] = true;
-				}
-				break;
-				
-			//the square tetromino
-			case 2: 
-				//check the position, fix if necessary
-				if (pos >= GRID_WIDTH - 1)
-					pos = GRID_WIDTH - 2;
-				//find appropriate height to place, within tetris 'original algorithm' gravity rules
-				height = GRID_HEIGHT - 2;
-				while (height > 0 && !(grid[pos][height-1] || grid[pos+1][height-1]))
-					height--;
-				//finally, place the square tetromino piece
-				grid[pos][height] = true;
-				grid[pos+1][height] = true;
-				grid[pos][height+1] = true;
-				grid[pos+1][height+1] = true;
-				break;
-				
-			//the T tetromino
-			case 3: 
-				//if original orientation
-				if (rotate == 0) {
-					//check the position, fix if necessary
-					if (pos >= GRID_WIDTH - 1)
-						pos = GRID_WIDTH - 2;
-					//find appropriate height to place, within tetris 'original algorithm' gravity rules
-					height = GRID_HEIGHT - 3;
-					while (height > 0 && !(grid[pos][height-1] || grid[pos+1][height]))
-						height--;
-					//finally, place the T tetromino piece
-					grid[pos][height] = true;
-					grid[pos][height+1] = true;
-					grid[pos+1][height+1] = true;
-					grid[pos][height+2] = true;
-				} else if (rotate == 1) { // or rotated 90 degree anticlockwise
-					//check the position, fix if necessary
-					if (pos >= GRID_WIDTH - 2)
-						pos = GRID_WIDTH - 3;
-					//find appropriate height to place, within tetris 'original algorithm' gravity rules
-					height = GRID_HEIGHT - 2;
-					while (height > 0 && !(grid[pos][height-1] || grid[pos+1][height-1] || grid[pos+2][height-1]))
-						height--;
-					//finally, place the T tetromino piece
-					grid[pos][height] = true;
-					grid[pos+1][height+1] = true;
-					grid[pos+1][height] = true;
-					grid[pos+2][height] = true;
-				} else if (rotate == 2) { // or rotated 180 degree anticlockwise
-					//check the position, fix if necessary
-					if (pos >= GRID_WIDTH - 1)
-						pos = GRID_WIDTH - 2;
-					//find appropriate height to place, within tetris 'original algorithm' gravity rules
-					height = GRID_HEIGHT - 3;
-					while (height > 0 && !(grid[pos][height] || grid[pos+1][height-1]))
-						height--;
-					//finally, place the T tetromino piece
-					grid[pos+1][height+2] = true;
-					grid[pos][height+1] = true;
-					grid[pos+1][height+1] = true;
-					grid[pos+1][height] = true;
-				} else if (rotate == 3) { // or rotated 270 degree anticlockwise
-					//check the position, fix if necessary
-					if (pos >= GRID_WIDTH - 2)
-						pos = GRID_WIDTH - 3;
-					//find appropriate height to place, within tetris 'original algorithm' gravity rules
-					height = GRID_HEIGHT - 2;
-					while (height > 0 && !(grid[pos][height] || grid[pos+1][height-1] || grid[pos+2][height]))
-						height--;
-					//finally, place the T tetromino piece
-					grid[pos][height+1] = true;
-					grid[pos+1][height+1] = true;
-					grid[pos+1][height] = true;
-					grid[pos+2][height+1] = true;
-				}
-				break;
-	
-			//the J tetromino
-			case 4: 
-				//if original orientation
-				if (rotate == 0) {
-					//check the position, fix if necessary
-					if (pos >= GRID_WIDTH - 1)
-						pos = GRID_WIDTH - 2;
-					//find appropriate height to place, within tetris 'original algorithm' gravity rules
-					height = GRID_HEIGHT - 3;
-					while (height > 0 && !(grid[pos][height-1] || grid[pos+1][height+1]))
-						height--;
-					//finally, place the J tetromino piece
-					grid[pos][height] = true;
-					grid[pos][height+1] = true;
-					grid[pos][height+2] = true;
-					grid[pos+1][height+2] = true;
-				} else if (rotate == 1) { // or rotated 90 degree anticlockwise
-					//check the position, fix if necessary
-					if (pos >= GRID_WIDTH - 2)
-						pos = GRID_WIDTH - 3;
-					//find appropriate height to place, within tetris 'original algorithm' gravity rules
-					height = GRID_HEIGHT - 2;
-					while (height > 0 && !(grid[pos][height-1] || grid[pos+1][height-1] || grid[pos+2][height-1]))
-						height--;
-					//finally, place the J tetromino piece
-					grid[pos][height] = true;
-					grid[pos][height+1] = true;
-					grid[pos+1][height] = true;
-					grid[pos+2][height] = true;
-				} else if (rotate == 2) { // or rotated 180 degree anticlockwise
-					//check the position, fix if necessary
-					if (pos >= GRID_WIDTH - 1)
-						pos = GRID_WIDTH - 2;
-					//find appropriate height to place, within tetris 'original algorithm' gravity rules
-					height = GRID_HEIGHT - 3;
-					while (height > 0 && !(grid[pos][height-1] || grid[pos+1][height-1]))
-						height--;
-					//finally, place the J tetromino piece
-					grid[pos][height] = true;
-					grid[pos+1][height] = true;
-					grid[pos+1][height+1] = true;
-					grid[pos+1][height+2] = true;
-				} else if (rotate == 3) { // or rotated 270 degree anticlockwise
-					//check the position, fix if necessary
-					if (pos >= GRID_WIDTH - 2)
-						pos = GRID_WIDTH - 3;
-					//find appropriate height to place, within tetris 'original algorithm' gravity rules
-					height = GRID_HEIGHT - 2;
-					while (height > 0 && !(grid[pos][height] || grid[pos+1][height] || grid[pos+2][height-1]))
-						height--;
-					//finally, place the J tetromino piece
-					grid[pos][height+1] = true;
-					grid[pos+1][height+1] = true;
-					grid[pos+2][height+1] = true;
-					grid[pos+2][height] = true;
-				}
-				break;
-	
-			//the L tetromino
-			case 5: 
-				//if original orientation
-				if (rotate == 0) {
-					//check the position, fix if necessary
-					if (pos >= GRID_WIDTH - 1)
-						pos = GRID_WIDTH - 2;
-					//find appropriate height to place, within tetris 'original algorithm' gravity rules
-					height = GRID_HEIGHT - 3;
-					while (height > 0 && !(grid[pos][height+1] || grid[pos+1][height-1]))
-						height--;
-					//finally, place the L tetromino piece
-					grid[pos][height+2] = true;
-					grid[pos+1][height+2] = true;
-					grid[pos+1][height+1] = true;
-					grid[pos+1][height] = true;
-				} else if (rotate == 1) { // or rotated 90 degree anticlockwise
-					//check the position, fix if necessary
-					if (pos >= GRID_WIDTH - 2)
-						pos = GRID_WIDTH - 3;
-					//find appropriate height to place, within tetris 'original algorithm' gravity rules
-					height = GRID_HEIGHT - 2;
-					while (height > 0 && !(grid[pos][height-1] || grid[pos+1][height] || grid[pos+2][height]))
-						height--;
-					//finally, place the L tetromino piece
-					grid[pos][height] = true;
-					grid[pos][height+1] = true;
-					grid[pos+1][height+1] = true;
-					grid[pos+2][height+1] = true;
-				} else if (rotate == 2) { // or rotated 180 degree anticlockwise
-					//check the position, fix if necessary
-					if (pos >= GRID_WIDTH - 1)
-						pos = GRID_WIDTH - 2;
-					//find appropriate height to place, within tetris 'original algorithm' gravity rules
-					height = GRID_HEIGHT - 3;
-					while (height > 0 && !(grid[pos][height-1] || grid[pos+1][height-1]))
-						height--;
-					//finally, place the L tetromino piece
-					grid[pos][height+2] = true;
-					grid[pos][height+1] = true;
-					grid[pos][height] = true;
-					grid[pos+1][height] = true;
-				} else if (rotate == 3) { // or rotated 270 degree anticlockwise
-					//check the position, fix if necessary
-					if (pos >= GRID_WIDTH - 2)
-						pos = GRID_WIDTH - 3;
-					//find appropriate height to place, within tetris 'original algorithm' gravity rules
-					height = GRID_HEIGHT - 2;
-					while (height > 0 && !(grid[pos][height-1] || grid[pos+1][height-1] || grid[pos+2][height-1]))
-						height--;
-					//finally, place the L tetromino piece
-					grid[pos][height] = true;
-					grid[pos+1][height] = true;
-					grid[pos+2][height] = true;
-					grid[pos+2][height+1] = true;
-				}
-				break;
-	
-			//the S tetromino
-			case 6: 
-				//if original orientation
-				if (rotate % 2 == 0) {
-					//check the position, fix if necessary
-					if (pos >= GRID_WIDTH - 1)
-						pos = GRID_WIDTH - 2;
-					//find appropriate height to place, within tetris 'original algorithm' gravity rules
-					height = GRID_HEIGHT - 3;
-					while (height > 0 && !(grid[pos][height] || grid[pos+1][height-1]))
-						height--;
-					//finally, place the S tetromino piece
-					grid[pos][height+2] = true;
-					grid[pos][height+1] = true;
-					grid[pos+1][height+1] = true;
-					grid[pos+1][height] = true;
-				} else { // or rotated 90 degree anticlockwise
-					//check the position, fix if necessary
-					if (pos >= GRID_WIDTH - 2)
-						pos = GRID_WIDTH - 3;
-					//find appropriate height to place, within tetris 'original algorithm' gravity rules
-					height = GRID_HEIGHT - 2;
-					while (height > 0 && !(grid[pos][height-1] || grid[pos+1][height-1] || grid[pos+2][height]))
-						height--;
-					//finally, place the S tetromino piece
-					grid[pos][height] = true;
-					grid[pos+1][height] = true;
-					grid[pos+1][height+1] = true;
-					grid[pos+2][height+1] = true;
-				}
-				break;
-	
-			//the Z tetromino
-			case 7: 
-				//if original orientation
-				if (rotate % 2 == 0) {
-					//check the position, fix if necessary
-					if (pos >= GRID_WIDTH - 1)
-						pos = GRID_WIDTH - 2;
-					//find appropriate height to place, within tetris 'original algorithm' gravity rules
-					height = GRID_HEIGHT - 3;
-					while (height > 0 && !(grid[pos][height-1] || grid[pos+1][height]))
-						height--;
-					//finally, place the Z tetromino piece
-					grid[pos][height] = true;
-					grid[pos][height+1] = true;
-					grid[pos+1][height+1] = true;
-					grid[pos+1][height+2] = true;
-				} else { // or rotated 90 degree anticlockwise
-					//check the position, fix if necessary
-					if (pos >= GRID_WIDTH - 2)
-						pos = GRID_WIDTH - 3;
-					//find appropriate height to place, within tetris 'original algorithm' gravity rules
-					height = GRID_HEIGHT - 2;
-					while (height > 0 && !(grid[pos][height] || grid[pos+1][height-1] || grid[pos+2][height-1]))
-						height--;
-					//finally, place the Z tetromino piece
-					grid[pos][height+1] = true;
-					grid[pos+1][height+1] = true;
-					grid[pos+1][height] = true;
-					grid[pos+2][height] = true;
-				}
-				break;
-				
-			default:
-				//although this case will never occur, include for sake of coding practice
-				break;
-		}
-		clearFullLines();
-	}
-	
-	private static void clearFullLines() {
-		//loop through each row
-		for (int j = 0; j < GRID_HEIGHT; j++) {
-			//check if the row is 'complete'
-			boolean lineDone = grid[0][j];
-			//loop through each column, only while the line is complete so far
-			int i = 1;
-			while (lineDone) {
-				lineDone = lineDone && grid[i][j];
-				i++;
-				//if gone through the entire line, and is all complete, exit loop
-				if (i == GRID_WIDTH)
-					break;
-			}
-			//if the line checked is complete
-			if (lineDone) {
-				//remove it by copying all lines above it down 1 row
-				for (int jj = j; jj < GRID_HEIGHT - 1; jj++) {
-					for (int ii = 0; ii < GRID_WIDTH; ii++) {
-						grid[ii][jj] = grid[ii][jj+1];
-					}
-				}
-				//finally fill the top row with empty spaces
-				for (int iii = 0; iii < GRID_WIDTH; iii++) {
-					grid[iii][GRID_HEIGHT-1] = false;
-				}
-				//recheck the (now) current row (the previous row ontop)
-				j--;
-			}
-		}
+	private int placePiece(int iden, int rotate, int pos) {
+		return grid.place(iden, rotate, pos);
 	}
 	
 	/**
 	 * Method to print the current grid state onto the terminal window.
 	 * Primarily used for debugging
 	 *
-	private static void printGrid() {
-		for (int j = GRID_HEIGHT - 1; j >= 0; j--) {
-			for (int i = 0; i < GRID_WIDTH; i++) {
-				System.out.print(grid[i][j] ? '#' : '.');
+	private void printGrid() {
+		for (int j = grid.height - 1; j >= 0; j--) {
+			for (int i = 0; i < grid.width; i++) {
+				System.out.print(grid.isFilled(i, j) ? '#' : '.');
 			}
 			System.out.print(j + "\n");
 		}
@@ -560,193 +754,374 @@ public class TetrisSolver {
 	/**
 	 * The method that implements my AI and plays tetris. Uses a genetic algorithm
 	 * similar to A*
+	 * @throws IOException if a move cannot be written in streaming mode
 	 */
-	private static void playTetris() {
+	private void playTetris() throws IOException {
 		//if start of playing, load the buffer initially (part of my algorithm)
 		loadInitialBuffer();
 		
-		//now, iterate through the next n - BUFFER_SIZE pieces
-		for (int counter = 0; counter < count - BUFFER_SIZE; counter++) {
-			//make an array of all potential pieces to be placed this move
-			int[] use = new int[BUFFER_SIZE + 1];
-			use[0] = pieces[BUFFER_SIZE + counter];
-			for (int i = 0; i < BUFFER_SIZE; i++) {
-				use[i+1] = buffer[i];
+		//now, iterate through the pieces after the buffer
+		int held = buffer.length;
+		for (int counter = 0; counter < count - held; counter++) {
+			playBestPiece(decideMove(pieces, held + counter, count - held - counter));
+		}
+		clearFinalBuffer(Math.min(count, held));
+	}
+	
+	/**
+	 * Plays tetris in streaming mode, reading each piece from the source only when
+	 * it is needed and writing each move out as soon as it is decided. Only the
+	 * buffer, the pieces the lookahead sees and the grid are held, so memory does
+	 * not grow with the input
+	 * @param source the pieces to play
+	 * @throws IOException if the pieces cannot be read or a move cannot be written
+	 */
+	private void streamTetris(PieceSource source) throws IOException {
+		//load the buffer initially from the start of the stream
+		int held = 0;
+		int piece;
+		while (held < buffer.length && (piece = source.nextPiece()) != -1) {
+			buffer[held++] = piece;
+		}
+		
+		//now, decide each piece as it arrives
+		if (held == buffer.length) {
+			int[] ahead = new int[lookaheadDepth];
+			int known = 0;
+			while (known < ahead.length && (piece = source.nextPiece()) != -1) {
+				ahead[known++] = piece;
 			}
-			
-			//make a copy of the current grid state
-			boolean[][] tempGrid = copyGrid();
-			//hold the currently best scored 'move'
-			Move bestMove = null;
-			//hold the currently best move score, initially set so any first move will replace it
-			int bestScore = -999999999;
-			//hold whether or not a buffer piece was used (swapped out)
-			boolean buffUsed = false;
-			//hold the index of the buffer piece used
-			int buffUsedIndex = -1;
-			//hold the index of the 
-			
-			//iterate through all the potential pieces to place
-			for (int useIndex = 0; useIndex < use.length; useIndex++) {
-				//determine how many rotations need to be processed for the upcoming piece
-				int rotation = findNRotations(use[useIndex]);
-				
-				//for each rotation of the currently selected potential piece
-				for (int y = 0; y < rotation; y++) {
-					//and for each position in the grid (width wise)
-					for (int z = 0; z < GRID_WIDTH; z++) {
-						//unify the piece identity, rotation and position
-						Move currentMove = new Move(use[useIndex],y,z);
-						//place the piece in the original grid
-						placePiece(use[useIndex],y,z);
-						
-						//score the current updated grid
-						int score = scoreGrid();
-						
-						//if the currently processed score is the best so far, store it
-						if (score > bestScore) {
-							bestScore = score;
-							bestMove = currentMove;
-							
-							if (useIndex > 0) {
-								buffUsed = true;
-								buffUsedIndex = useIndex - 1;
-							}
-						}
-						
-						//revert the grid back to its original state
-						revertGrid(tempGrid);
-					}
-				}
+			streamMoves(source, ahead, known, held + known);
+		}
+		clearFinalBuffer(held);
+	}
+	
+	/**
+	 * Decides each piece as it arrives until the stream ends, reading ahead as far
+	 * as the lookahead sees, and takes a snapshot whenever one is due
+	 * @param source the pieces still to be read
+	 * @param ahead the pieces read ahead, the incoming piece first, with room for
+	 * 	as many as the lookahead sees
+	 * @param known the number of pieces read ahead
+	 * @param consumed the number of pieces read from the input so far
+	 * @throws IOException if the pieces cannot be read or a move cannot be written
+	 */
+	private void streamMoves(PieceSource source, int[] ahead, int known, long consumed) throws IOException {
+		long due = System.nanoTime() + checkpointNanos;
+		int piece;
+		for (int counter = 1; known > 0; counter++) {
+			playBestPiece(decideMove(ahead, 0, known));
+			//move the window of known pieces along by one
+			System.arraycopy(ahead, 1, ahead, 0, known - 1);
+			known--;
+			if ((piece = source.nextPiece()) != -1) {
+				ahead[known++] = piece;
+				consumed++;
 			}
-			
-			if (buffUsed) {
-				buffer[buffUsedIndex] = use[0];
+			//only look at the clock every so often
+			if (checkpoint != null && (counter & 255) == 0 && System.nanoTime() >= due) {
+				if (takeCheckpoint(ahead, known, consumed))
+					due = System.nanoTime() + checkpointNanos;
 			}
-			playBestPiece(bestMove);
 		}
-		clearFinalBuffer();
 	}
 	
 	/**
-	 * A method the judge a given tetris game state and score it, a high score
-	 * relates to a desired game state and a low score relates to an undesired state
-	 * @return the score of the current game state
+	 * Decides the best move with chooseMove, timing the decision and counting the
+	 * candidates it scored if metrics are being collected or moves recorded
+	 * @param upcoming the known pieces still to be delivered
+	 * @param offset the index of the incoming piece in upcoming
+	 * @param known the number of known pieces from offset, including the incoming piece
+	 * @return the best judged move, packed by Move.pack
 	 */
-	private static int scoreGrid() {
-		//determine the height of the current tetris grid
-		int height = 0;
+	private int decideMove(int[] upcoming, int offset, int known) {
+		if (metrics == null && !event.isEnabled()) {
+			return chooseMove(upcoming, offset, known);
+		}
+		event.begin();
+		long start = System.nanoTime();
+		int move = chooseMove(upcoming, offset, known);
+		int candidates = lookahead != null ? lookahead.evaluated : scored;
+		decided(System.nanoTime() - start, candidates, Move.iden(move) != upcoming[offset]);
+		return move;
+	}
+	
+	/**
+	 * Records how the next move was decided, in the metrics if they are being
+	 * collected and in the event of the move
+	 * @param nanos the time taken to decide it
+	 * @param candidates the number of candidate moves scored
+	 * @param swapped whether it plays a buffer piece in place of the incoming piece
+	 */
+	private void decided(long nanos, int candidates, boolean swapped) {
+		if (metrics != null) {
+			metrics.decided(nanos, candidates, swapped);
+		}
+		event.candidates = candidates;
+		event.decideNanos = nanos;
+		event.swapped = swapped;
+	}
+	
+	/**
+	 * Decides the best move out of the incoming piece and the pieces in the buffer.
+	 * If a buffer piece is chosen, the incoming piece takes its place in the buffer
+	 * @param upcoming the known pieces still to be delivered
+	 * @param offset the index of the incoming piece in upcoming
+	 * @param known the number of known pieces from offset, including the incoming
+	 * 	piece. Only the lookahead looks past the incoming piece
+	 * @return the best judged move, packed by Move.pack
+	 */
+	private int chooseMove(int[] upcoming, int offset, int known) {
+		if (lookahead != null) {
+			if (deadlineNanos > 0) {
+				searchAnytime(upcoming, offset, known);
+			} else {
+				lookahead.search(grid, buffer, upcoming, offset, known);
+			}
+			if (lookahead.bestUse > 0) {
+				buffer[lookahead.bestUse - 1] = upcoming[offset];
+			}
+			return Move.pack(lookahead.bestIden, lookahead.bestRotate, lookahead.bestPos);
+		}
 		
-		//save the total number of blockades in the grid (a blockade is a block covering a hole)
-		int totalBlockades = 0;
+		//gather all potential pieces to be placed this move
+		use[0] = upcoming[offset];
+		for (int i = 0; i < buffer.length; i++) {
+			use[i+1] = buffer[i];
+		}
 		
-		//save the total number of holes in the grid (a hole is a non-existent block that is surrounded by blocks)
-		int numHoles = 0;
-
-		//calculate the height
-		boolean rowExists = true;
-		while (rowExists && height < GRID_HEIGHT) {
-			rowExists = false;
-			for (int i = 0; i < GRID_WIDTH; i++) {
-				//if a block exists
-				if (grid[i][height]) {
-					//increment the height
-					height++;
-					rowExists = true;
-					//no need to continue checking the current row
-					break;
-				}
+		if (parallel) {
+			return chooseMoveParallel(use);
+		}
+		
+		//play the best placement of any of them, and keep the rest
+		int best = searchHand(use, 0, use.length);
+		if (candUse[best] > 0) {
+			buffer[candUse[best] - 1] = use[0];
+		}
+		return Move.pack(candIden[best], candRotate[best], candPos[best]);
+	}
+	
+	/**
+	 * Finds the best placement of any of the pieces on hand by branch and bound.
+	 * Playing one piece keeps all the others, so the choice only grows with the
+	 * number of distinct pieces on hand, at most 7. Every distinct placement of
+	 * every distinct piece is bounded first, which costs far less than playing
+	 * and scoring it, and they are put in a heap built once, best bound first and
+	 * equal bounds in the order listed, so only as many are put in order as are
+	 * taken off it. They are scored as they come off the heap until no bound left
+	 * can beat the best score, nor tie it listed earlier. Equal scores go to the
+	 * placement listed first, so the same placement is found as by scoring them
+	 * all in order. When no placement can be bounded there is no heap, and they
+	 * are all scored in the order listed
+	 * @param hand the pieces on hand
+	 * @param from the index of the first piece on hand
+	 * @param to one past the index of the last piece on hand
+	 * @return the index of the best placement in the candidate lists, with the
+	 * 	index in hand of the piece it plays in candUse, or -1 if there are no
+	 * 	pieces on hand
+	 */
+	private int searchHand(int[] hand, int from, int to) {
+		//list and bound every placement, in the order they were always tried
+		evaluator.prepare(grid, base);
+		int n = 0;
+		boolean bounded = false;
+		for (int h = from; h < to; h++) {
+			if (MoveGenerator.repeats(hand, from, h))
+				continue;
+			for (int move : generator.moves(hand[h])) {
+				candIden[n] = hand[h];
+				candRotate[n] = Move.rotate(move);
+				candPos[n] = Move.pos(move);
+				candUse[n] = h;
+				candBound[n] = evaluator.bound(grid, base, hand[h], candRotate[n], candPos[n]);
+				bounded |= candBound[n] != Integer.MAX_VALUE;
+				n++;
 			}
 		}
-
-		//check for holes and blockades
 		
-		//check the first column
-		for (int a = 0; a < GRID_HEIGHT - 1; a++) {
-			if (grid[1][a] && grid[0][a+1] && !grid[0][a]) {
-				numHoles++;
-				int h = a + 1;
-				while (h < GRID_HEIGHT && grid[0][h]) {
-					h++;
-					totalBlockades++;
-				}
+		//order best bound first, the index breaking ties so equal bounds stay in order
+		if (bounded) {
+			for (int i = 0; i < n; i++) {
+				candOrder[i] = -(long) candBound[i] << ORDER_SHIFT | i;
+			}
+			for (int i = n / 2 - 1; i >= 0; i--) {
+				siftDown(candOrder, i, n);
 			}
 		}
-		//check all middle columns
-		for (int z = 1; z < GRID_WIDTH - 1; z++) {
-			for (int b = 0; b < GRID_HEIGHT - 1; b++) {
-				if (grid[z-1][b] && grid[z][b+1] && grid[z+1][b] && !grid[z][b]) {
-					numHoles++;
-					int h = b + 1;
-					while (h < GRID_HEIGHT && grid[0][h]) {
-						h++;
-						totalBlockades++;
-					}
-				}
+		
+		//hold the currently best placement and its score, none at first
+		int best = -1;
+		int bestScore = 0;
+		scored = 0;
+		for (int k = 0; k < n; k++) {
+			int next = k;
+			if (bounded) {
+				//take the top of the heap, refilling it from the last
+				next = (int) (candOrder[0] & ORDER_MASK);
+				candOrder[0] = candOrder[n - 1 - k];
+				siftDown(candOrder, 0, n - 1 - k);
+			}
+			//stop once no placement left can beat the best, nor tie it listed earlier
+			if (best >= 0 && (candBound[next] < bestScore || (candBound[next] == bestScore && next > best)))
+				break;
+			
+			tryPiece(candIden[next], candRotate[next], candPos[next]);
+			int score = evaluator.evaluate(grid);
+			revertGrid();
+			scored++;
+			if (best < 0 || score > bestScore || (score == bestScore && next < best)) {
+				bestScore = score;
+				best = next;
 			}
 		}
-		//check the last column
-		for (int c = 0; c < GRID_HEIGHT - 1; c++) {
-			if (grid[GRID_WIDTH - 2][c] && grid[GRID_WIDTH - 1][c+1] && grid[GRID_WIDTH - 1][c]) {
-				numHoles++;
-				int h = c + 1;
-				while (h < GRID_HEIGHT && grid[0][h]) {
-					h++;
-					totalBlockades++;
-				}
+		return best;
+	}
+	
+	/**
+	 * Moves an entry of a heap down until neither entry below it is smaller
+	 * @param heap the heap, smallest at the top
+	 * @param i the index of the entry
+	 * @param n the number of entries in the heap
+	 */
+	private static void siftDown(long[] heap, int i, int n) {
+		long entry = heap[i];
+		int child;
+		while ((child = 2 * i + 1) < n) {
+			if (child + 1 < n && heap[child + 1] < heap[child])
+				child++;
+			if (heap[child] >= entry)
+				break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = entry;
+	}
+	
+	/**
+	 * Searches deeper and deeper until the time budget of the move runs out,
+	 * leaving the move of the deepest search finished in the lookahead. The
+	 * first search judges each move on its own and always finishes, so there is
+	 * always a move to play
+	 * @param upcoming the known pieces still to be delivered
+	 * @param offset the index of the incoming piece in upcoming
+	 * @param known the number of known pieces from offset, including the incoming piece
+	 */
+	private void searchAnytime(int[] upcoming, int offset, int known) {
+		long deadline = System.nanoTime() + deadlineNanos;
+		int deepest = Math.min(lookaheadDepth, known);
+		int reached = 0;
+		int evaluated = 0;
+		for (int d = 1; d <= deepest; d++) {
+			boolean finished = lookahead.search(grid, buffer, upcoming, offset, known, d, d == 1 ? Long.MAX_VALUE : deadline);
+			evaluated += lookahead.evaluated;
+			if (!finished) {
+				cutoffs++;
+				break;
+			}
+			reached = d;
+		}
+		//every search counts towards the boards scored for the move
+		lookahead.evaluated = evaluated;
+		anytimeMoves++;
+		depthReached[reached]++;
+	}
+	
+	/**
+	 * Decides the best move the same way as chooseMove, but scores the candidates
+	 * in parallel. The candidates are numbered in the order chooseMove would try
+	 * them, and equal scores go to the lowest number, so the same move is chosen
+	 * @param use the incoming piece followed by the pieces in the buffer
+	 * @return the best judged move, packed by Move.pack
+	 */
+	private int chooseMoveParallel(int[] use) {
+		//list every candidate in order
+		int n = 0;
+		scored = 0;
+		for (int useIndex = 0; useIndex < use.length; useIndex++) {
+			if (MoveGenerator.repeats(use, 0, useIndex))
+				continue;
+			for (int move : generator.moves(use[useIndex])) {
+				candIden[n] = use[useIndex];
+				candRotate[n] = Move.rotate(move);
+				candPos[n] = Move.pos(move);
+				candUse[n] = useIndex;
+				n++;
 			}
 		}
 		
-		//calculate the 'score' of the current grid. very subject to change
-		//all coefficients are made up experimentally
-		//BLOCKADES AND HOLES NOT WORKING AS INTENDED....(documented in doco)
-		int score = (height * (-380)) +  (totalBlockades * (0)) + (numHoles * (0)); 
+		//score them all and take the best
+		long best = ForkJoinPool.commonPool().invoke(new CandidateTask(grid, evaluator, candIden, candRotate, candPos, 0, n));
+		scored = n;
+		int i = CandidateTask.index(best);
 		
-		return score;
+		if (candUse[i] > 0) {
+			buffer[candUse[i] - 1] = use[0];
+		}
+		return Move.pack(candIden[i], candRotate[i], candPos[i]);
 	}
 	
 	/**
 	 * Private helper method to clear the final pieces of the buffer onto the 
 	 * tetris game state. Created to reduce the size of my playTetris method
+	 * @param held the number of pieces in the buffer, less than it holds only
+	 * 	if there were fewer pieces than that in total
+	 * @throws IOException if a move cannot be written in streaming mode
 	 */
-	private static void clearFinalBuffer() {
+	private void clearFinalBuffer(int held) throws IOException {
 		//now, all pieces in the pieces array have been processed, empty out the buffer
-		for (int j = 0; j < BUFFER_SIZE; j++) {
-			//make a copy of the current grid state
-			boolean[][] tempGrid = copyGrid();
-			
-			//hold the currently best scored 'move'
-			Move bestMove = null;
-			//hold the currently best move score, initially set so any first move will replace it
-			int bestScore = -999999999;
-			
-			for (int cBuffer = j; cBuffer < BUFFER_SIZE; cBuffer++) {
-				//determine how many rotations need to be processed for the upcoming piece
-				int rotation = findNRotations(buffer[cBuffer]);
-				//for each rotation of the next piece in the unprocessed buffer array
-				for (int y = 0; y < rotation; y++) {
-					//and for each position in the grid (width wise)
-					for (int z = 0; z < GRID_WIDTH; z++) {
-						//hold the current move data together
-						Move currentMove = new Move(buffer[cBuffer],y,z);
-						//place the piece in the original grid
-						placePiece(buffer[cBuffer],y,z);
-						
-						//score the current updated grid
-						int score = scoreGrid();
-						
-						//if the currently processed score is the best so far, store it
-						if (score > bestScore) {
-							bestScore = score;
-							bestMove = currentMove;
-						}
-						
-						//revert the grid back to its original state
-						revertGrid(tempGrid);
-					}
-				}				
+		for (int j = 0; j < held; j++) {
+			//play the best placement of the pieces left, then keep them after the one played
+			boolean timed = metrics != null || event.isEnabled();
+			long start = 0;
+			if (timed) {
+				event.begin();
+				start = System.nanoTime();
 			}
-			playBestPiece(bestMove);
+			int best = searchHand(buffer, j, held);
+			//no piece is incoming any more, so none is swapped for it
+			if (timed)
+				decided(System.nanoTime() - start, scored, false);
+			int played = candUse[best];
+			buffer[played] = buffer[j];
+			buffer[j] = candIden[best];
+			playBestPiece(Move.pack(candIden[best], candRotate[best], candPos[best]));
+		}
+	}
+	
+	/**
+	 * Prints the transposition table counters, if there is a table, so that its
+	 * size can be tuned, how the time budget cut the searches short if there is
+	 * one, and the metrics summary if metrics were collected
+	 */
+	private void printTableStats() {
+		if (table != null) {
+			System.err.println(table);
+		}
+		if (anytimeMoves > 0) {
+			StringBuilder depths = new StringBuilder();
+			for (int d = 1; d < depthReached.length; d++) {
+				depths.append(d == 1 ? " " : ", ").append(d).append(": ").append(depthReached[d]);
+			}
+			System.err.println(String.format("anytime: %d moves, %d cut short by the deadline (%.1f%%), depth reached%s",
+				anytimeMoves, cutoffs, 100.0 * cutoffs / anytimeMoves, depths));
+		}
+		if (metrics != null) {
+			System.err.println(metrics);
+		}
+	}
+	
+	/**
+	 * Writes the collected metrics to the file set on the command line, if any
+	 * @param file the file to write them to
+	 */
+	private void writeMetrics(String file) {
+		if (metrics == null || file == null)
+			return;
+		try {
+			metrics.write(Paths.get(file));
+		} catch (IOException e) {
+			System.out.println("Failed to write metrics file: " + file);
 		}
 	}
 	
@@ -755,26 +1130,239 @@ public class TetrisSolver {
 	 *************************************************************************/
 	
 	public static void main(String args[]) {
-		//Check the usage of TetrisSolver
-		if (args.length != 2) {
-			System.out.println("Usage: java TetrisSolver exampleinput.txt exampleoutput.txt");
+		//find the mode ahead of the options. Pipelining streams the game with the
+		//input read and the output written on threads of their own
+		boolean pipelined = args.length > 0 && args[0].equals("--pipeline");
+		boolean streaming = pipelined || args.length > 0 && args[0].equals("--stream");
+		boolean batch = args.length > 1 && args[0].equals("--batch");
+		int first = streaming ? 1 : batch ? 2 : 0;
+		
+		//read any options ahead of the file names
+		TetrisSolver solver = new TetrisSolver();
+		int a = configure(solver, args, first);
+		
+		//Check the usage of TetrisSolver. Only a game streamed to a file can be resumed
+		if (a < 0 || (batch ? a == args.length : args.length - a != 2)
+				|| solver.checkpointFile != null && !(streaming && !args[args.length - 1].equals("-"))) {
+			System.out.println("Usage: java TetrisSolver [--stream|--pipeline] [options] exampleinput.txt exampleoutput.txt");
+			System.out.println("       java TetrisSolver --batch outputdir [options] inputs...");
+			System.out.println("Options: [--parallel] [--binary] [--width columns] [--buffer slots] [--lookahead depth] [--beam width] [--dedup] [--weights w1,...,w8] [--deadline micros] [--tt megabytes] [--metrics file.csv|file.json]");
+			System.out.println("Streaming to a file: [--checkpoint file] [--interval seconds] [--resume file]");
+			return;
+		}
+		if (batch) {
+			batch(solver, args, a);
+			return;
+		}
+		if (streaming) {
+			stream(solver, args[a], args[a+1], pipelined);
 			return;
 		}
 		
 		try {
-			//read the input file
-			readInFile(args[0]);
-			//set the grid
-			setGrid();
-			//play tetris!
-			playTetris();
-			//write the solution to the output file
-			writeOutFile(args[1]);
+			solver.solve(args[a], args[a+1]);
+			solver.printTableStats();
+			solver.writeMetrics(solver.metricsFile);
 		} catch (IOException e) {
 			//if fail to open input file
-			System.out.println("Failed to open file: " + args[0]);
+			System.out.println("Failed to open file: " + args[a]);
 		}
 		
 		return;
 	}
+	
+	/**
+	 * Applies the options given on the command line to a solver
+	 * @param solver the solver to configure
+	 * @param args the command line
+	 * @param a the index of the first option
+	 * @return the index of the first argument after the options, or -1 if an
+	 * 	option is not valid
+	 */
+	private static int configure(TetrisSolver solver, String[] args, int a) {
+		int depth = 1;
+		int width = 8;
+		int seconds = CHECKPOINT_SECONDS;
+		String checkpointFile = null;
+		try {
+			for (; a < args.length && args[a].startsWith("--"); a++) {
+				if (args[a].equals("--parallel")) {
+					solver.setParallel(true);
+				} else if (args[a].equals("--binary")) {
+					solver.setBinary(true);
+				} else if (args[a].equals("--width") && a + 1 < args.length) {
+					solver.setWidth(Integer.parseInt(args[++a]));
+				} else if (args[a].equals("--buffer") && a + 1 < args.length) {
+					solver.setBuffer(Integer.parseInt(args[++a]));
+				} else if (args[a].equals("--lookahead") && a + 1 < args.length) {
+					depth = Integer.parseInt(args[++a]);
+				} else if (args[a].equals("--beam") && a + 1 < args.length) {
+					width = Integer.parseInt(args[++a]);
+				} else if (args[a].equals("--dedup")) {
+					solver.setDedup(true);
+				} else if (args[a].equals("--weights") && a + 1 < args.length) {
+					solver.setWeights(Evaluator.parseWeights(args[++a]));
+				} else if (args[a].equals("--deadline") && a + 1 < args.length) {
+					solver.setDeadline(Long.parseLong(args[++a]) * 1000);
+				} else if (args[a].equals("--tt") && a + 1 < args.length) {
+					solver.setTable(Integer.parseInt(args[++a]));
+				} else if (args[a].equals("--metrics") && a + 1 < args.length) {
+					solver.setMetrics(new Metrics());
+					solver.metricsFile = args[++a];
+				} else if (args[a].equals("--checkpoint") && a + 1 < args.length) {
+					checkpointFile = args[++a];
+				} else if (args[a].equals("--interval") && a + 1 < args.length) {
+					seconds = Integer.parseInt(args[++a]);
+				} else if (args[a].equals("--resume") && a + 1 < args.length) {
+					solver.resumeFile = args[++a];
+				} else {
+					return -1;
+				}
+			}
+			solver.setLookahead(depth, width);
+			//a resumed game carries on taking snapshots, to the same file unless told otherwise
+			if (checkpointFile == null)
+				checkpointFile = solver.resumeFile;
+			solver.setCheckpoint(checkpointFile, seconds);
+			if (solver.binary && solver.width > SolutionWriter.MAX_BINARY_WIDTH)
+				return -1;
+		} catch (IllegalArgumentException e) {
+			//if an option value is not a valid number
+			return -1;
+		}
+		return a;
+	}
+	
+	/**
+	 * Creates a solver with the options applied to this one, for another game.
+	 * It has a cache and metrics of its own, so it can play on a thread of its
+	 * own, and takes no snapshots
+	 * @return the new solver
+	 */
+	private TetrisSolver copySettings() {
+		TetrisSolver copy = new TetrisSolver();
+		copy.setParallel(parallel);
+		copy.setBinary(binary);
+		copy.setWidth(width);
+		copy.setBuffer(buffer.length);
+		copy.setLookahead(lookaheadDepth, beamWidth);
+		copy.setDedup(dedup);
+		copy.setDeadline(deadlineNanos);
+		copy.setWeights(weights);
+		copy.setTable(tableMegabytes);
+		copy.setMetrics(metrics == null ? null : new Metrics());
+		copy.metricsFile = metricsFile;
+		return copy;
+	}
+	
+	/**
+	 * Runs TetrisSolver in streaming mode, for inputs of any length
+	 * @param solver the solver to play with
+	 * @param inFile the name of the input file, or "-" for standard input
+	 * @param outFile the name of the output file, or "-" for standard output
+	 * @param pipelined whether to read the input and write the output on
+	 * 	background threads while the game is played
+	 */
+	private static void stream(TetrisSolver solver, String inFile, String outFile, boolean pipelined) {
+		Checkpoint from = null;
+		if (solver.resumeFile != null) {
+			try {
+				from = Checkpoint.load(Paths.get(solver.resumeFile));
+			} catch (IOException e) {
+				System.out.println("Failed to resume: " + e.getMessage());
+				return;
+			}
+			//checked before the output is cut back to the snapshot
+			if (!Arrays.equals(from.settings, solver.settings())) {
+				System.out.println("Failed to resume: " + solver.resumeFile + " was taken with other options");
+				return;
+			}
+		}
+		try (PieceSource source = pipelined ? new PieceRing(openInFile(inFile), RING_PIECES) : openInFile(inFile);
+				SolutionWriter writer = from == null ? solver.openOutFile(outFile)
+					: SolutionWriter.append(outFile, solver.binary, solver.width, from.outputOffset)) {
+			//the moves so far go out whenever the game waits on the input
+			if (pipelined) {
+				writer.writeInBackground();
+				((PieceRing) source).flushWhenIdle(writer);
+			}
+			if (from == null) {
+				solver.stream(source, writer);
+			} else {
+				solver.resume(from, source, writer);
+			}
+			solver.printTableStats();
+			solver.writeMetrics(solver.metricsFile);
+		} catch (IOException e) {
+			//if fail to read the input file or write the output file
+			System.out.println("Failed to stream file: " + inFile + " to " + outFile);
+		}
+	}
+	
+	/**
+	 * Runs TetrisSolver in batch mode, solving many input files at once with one
+	 * solver each, every one a copy of the solver the options were applied to.
+	 * Every input is written to a file of the same name in the output directory
+	 * @param settings the solver the options were applied to
+	 * @param args the command line
+	 * @param a the index of the first input file or directory. A directory stands
+	 * 	for every file in it
+	 */
+	private static void batch(TetrisSolver settings, String[] args, int a) {
+		Path outDir = Paths.get(args[1]);
+		List<Path> inputs = new ArrayList<Path>();
+		try {
+			Files.createDirectories(outDir);
+			for (; a < args.length; a++) {
+				Path input = Paths.get(args[a]);
+				if (Files.isDirectory(input)) {
+					try (Stream<Path> files = Files.list(input)) {
+						files.filter(Files::isRegularFile).sorted().forEach(inputs::add);
+					}
+				} else {
+					inputs.add(input);
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("Failed to list files: " + e.getMessage());
+			return;
+		}
+		
+		//solve them all, at most one per processor at a time
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		List<Future<?>> games = new ArrayList<Future<?>>();
+		Set<Path> outputs = new HashSet<Path>();
+		for (Path input : inputs) {
+			//two games never write the same file
+			Path output = outDir.resolve(input.getFileName());
+			if (!outputs.add(output)) {
+				System.out.println("Skipping file: " + input + ", " + output + " is already written");
+				continue;
+			}
+			games.add(pool.submit(() -> {
+				TetrisSolver solver = settings.copySettings();
+				try {
+					solver.solve(input.toString(), output.toString());
+					//each game's metrics go beside the metrics file, named for its input
+					if (solver.metricsFile != null) {
+						Path file = Paths.get(solver.metricsFile);
+						solver.writeMetrics(file.resolveSibling(input.getFileName() + "." + file.getFileName()).toString());
+					}
+				} catch (IOException e) {
+					System.out.println("Failed to solve file: " + input);
+				}
+			}));
+		}
+		pool.shutdown();
+		for (Future<?> game : games) {
+			try {
+				game.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				System.out.println("Failed to solve a file: " + e.getCause());
+			}
+		}
+	}
 }
@@ -0,0 +1,91 @@
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * AI4211 Project
+ * Streams pieces from a text input, where every digit '1' to '7' is a piece and
+ * every other character is ignored. Only a fixed size buffer is held, so the
+ * input may be of any length
+ */
+public class TextPieceReader implements PieceSource {
+
+	/**
+	 * The size of the read buffer in bytes
+	 */
+	private final static int BUFFER_BYTES = 1 << 16;
+
+	/**
+	 * The input being read
+	 */
+	private final InputStream in;
+
+	/**
+	 * The read buffer
+	 */
+	private final byte[] bytes = new byte[BUFFER_BYTES];
+
+	/**
+	 * The index of the next unread byte in the buffer
+	 */
+	private int next = 0;
+
+	/**
+	 * The number of valid bytes in the buffer
+	 */
+	private int limit = 0;
+
+	/**
+	 * Creates a reader over an input
+	 * @param in the input, closed along with this reader
+	 */
+	public TextPieceReader(InputStream in) {
+		this.in = in;
+	}
+
+	@Override
+	public int nextPiece() throws IOException {
+		while (true) {
+			//refill the buffer once it has been scanned
+			if (next == limit) {
+				limit = in.read(bytes);
+				next = 0;
+				if (limit < 0) {
+					limit = 0;
+					return -1;
+				}
+			}
+			byte current = bytes[next++];
+			if (current >= '1' && current <= '7') {
+				return current - '0';
+			}
+		}
+	}
+
+	@Override
+	public int read(int[] pieces, int offset, int length) throws IOException {
+		int n = 0;
+		while (n < length) {
+			if (next == limit) {
+				limit = in.read(bytes);
+				next = 0;
+				if (limit < 0) {
+					limit = 0;
+					break;
+				}
+			}
+			//scan the rest of the buffer, or until the chunk is full
+			while (next < limit && n < length) {
+				byte current = bytes[next++];
+				if (current >= '1' && current <= '7') {
+					pieces[offset + n++] = current - '0';
+				}
+			}
+		}
+		return n == 0 && length > 0 ? -1 : n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
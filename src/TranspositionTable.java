@@ -0,0 +1,153 @@
+/**
+ * AI4211 Project
+ * A fixed-size cache of values keyed on a 64 bit hash, used to avoid judging the
+ * same game state twice. Entries are grouped into buckets of WAYS entries, and a
+ * full bucket evicts its least recently used entry.
+ *
+ * Lookups and stores need no locks. Each entry keeps its key XORed with its
+ * value, so an entry torn by two threads writing at once no longer matches its
+ * key and simply reads as a miss
+ */
+public class TranspositionTable {
+
+	/**
+	 * The number of entries in a bucket
+	 */
+	private final static int WAYS = 4;
+
+	/**
+	 * The bytes held for each entry: the checked key, the value and the age
+	 */
+	private final static int ENTRY_BYTES = 8 + 8 + 4;
+
+	/**
+	 * Each entry's key XORed with its value, 0 if the entry is empty
+	 */
+	private final long[] checks;
+
+	/**
+	 * Each entry's value
+	 */
+	private final long[] values;
+
+	/**
+	 * The clock reading when each entry was last used
+	 */
+	private final int[] ages;
+
+	/**
+	 * A mask selecting a bucket from a hash
+	 */
+	private final int bucketMask;
+
+	/**
+	 * The clock, ticking on every lookup and store
+	 */
+	private int clock = 0;
+
+	/**
+	 * Counters for sizing the table. Only approximate if the table is shared
+	 * between threads
+	 */
+	private long hits = 0, misses = 0, stores = 0, evictions = 0;
+
+	/**
+	 * Creates an empty table using at most the given memory
+	 * @param megabytes the most memory the table may use, at least 1
+	 */
+	public TranspositionTable(int megabytes) {
+		if (megabytes < 1)
+			throw new IllegalArgumentException("A transposition table needs at least 1MB");
+		//the largest power of two bucket count that fits
+		long entries = (long) megabytes * 1024 * 1024 / ENTRY_BYTES;
+		int buckets = Integer.highestOneBit((int) Math.min(entries / WAYS, 1 << 26));
+		bucketMask = buckets - 1;
+		checks = new long[buckets * WAYS];
+		values = new long[buckets * WAYS];
+		ages = new int[buckets * WAYS];
+	}
+
+	/**
+	 * Looks up the value stored for a key
+	 * @param key the key
+	 * @param missing the value to return if there is none
+	 * @return the value stored, or missing
+	 */
+	public long get(long key, long missing) {
+		int first = bucket(key);
+		for (int i = first; i < first + WAYS; i++) {
+			long value = values[i];
+			if ((checks[i] ^ value) == key && checks[i] != 0) {
+				ages[i] = ++clock;
+				hits++;
+				return value;
+			}
+		}
+		misses++;
+		return missing;
+	}
+
+	/**
+	 * Stores a value for a key, replacing any value already stored for it, or
+	 * else the least recently used entry of its bucket
+	 * @param key the key
+	 * @param value the value
+	 */
+	public void put(long key, long value) {
+		int first = bucket(key);
+		int victim = first;
+		for (int i = first; i < first + WAYS; i++) {
+			if (checks[i] == 0 || (checks[i] ^ values[i]) == key) {
+				victim = i;
+				break;
+			}
+			if (ages[i] - ages[victim] < 0)
+				victim = i;
+		}
+		if (checks[victim] != 0 && (checks[victim] ^ values[victim]) != key)
+			evictions++;
+		values[victim] = value;
+		checks[victim] = key ^ value;
+		ages[victim] = ++clock;
+		stores++;
+	}
+
+	/**
+	 * Returns the fraction of lookups that found a value
+	 * @return the hit rate, 0 if there have been no lookups
+	 */
+	public double hitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	/**
+	 * Returns a one line summary of the table's counters
+	 * @return the summary
+	 */
+	@Override
+	public String toString() {
+		return String.format("transposition table: %d entries, %d hits, %d misses (%.1f%% hit rate), %d stores, %d evictions",
+			checks.length, hits, misses, hitRate() * 100, stores, evictions);
+	}
+
+	/**
+	 * Mixes a value into a well spread 64 bit hash, using the splitmix64 finaliser
+	 * @param z the value to mix
+	 * @return the hash
+	 */
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Returns the first entry of the bucket a key belongs in
+	 * @param key the key
+	 * @return the index of the first entry
+	 */
+	private int bucket(long key) {
+		return ((int) (key ^ (key >>> 32)) & bucketMask) * WAYS;
+	}
+}
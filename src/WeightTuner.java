@@ -0,0 +1,451 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * AI4211 Project
+ * Tunes the weights of the Evaluator with a genetic algorithm. Every weight
+ * vector of a generation plays every game of a fixed corpus of seeded random
+ * piece sequences, each game with a solver of its own, on a thread per
+ * processor. The fitness of a vector is the mean final height of the stack over
+ * the corpus, the lower the fitter. The fittest ELITE vectors carry over to the
+ * next generation, and the rest are bred from the winners of tournaments by
+ * uniform crossover and then mutation.
+ *
+ * The corpus and every random choice come from the seed, and a game is played
+ * the same whichever thread plays it, so the same options always find the same
+ * weights. The best weights are finally played on a second corpus the tuner
+ * never saw, against the legacy weights, to show how well they hold up.
+ *
+ * Usage: java WeightTuner [--population n] [--generations n] [--games n]
+ *        [--pieces n] [--seed n] [--width columns] [--threads n]
+ */
+public class WeightTuner {
+
+	/*************************************************************************
+	 *                            TUNER SETUP                                *
+	 *************************************************************************/
+
+	/**
+	 * The number of weight vectors in each generation, unless set
+	 */
+	final static int POPULATION = 32;
+
+	/**
+	 * The number of generations bred, unless set
+	 */
+	final static int GENERATIONS = 20;
+
+	/**
+	 * The number of games in the corpus, unless set
+	 */
+	final static int GAMES = 16;
+
+	/**
+	 * The number of pieces in each game of the corpus, unless set
+	 */
+	final static int PIECES = 2000;
+
+	/**
+	 * The seed of the corpus and of every random choice, unless set
+	 */
+	final static long SEED = 4211;
+
+	/**
+	 * The number of the fittest vectors carried over unchanged to the next generation
+	 */
+	private final static int ELITE = 2;
+
+	/**
+	 * The number of vectors drawn for each tournament
+	 */
+	private final static int TOURNAMENT = 3;
+
+	/**
+	 * The chance of each weight of a bred vector being mutated
+	 */
+	private final static double MUTATION_RATE = 0.3;
+
+	/**
+	 * The weights of the first generation are drawn from -INITIAL_RANGE to 0,
+	 * as every feature measures something bad
+	 */
+	private final static int INITIAL_RANGE = 100;
+
+	/**
+	 * The number of vectors in each generation
+	 */
+	private final int population;
+
+	/**
+	 * The number of games in the corpus
+	 */
+	private final int games;
+
+	/**
+	 * The width of the board every game is played on
+	 */
+	private final int width;
+
+	/**
+	 * Every random choice of the tuner, made on the tuning thread only
+	 */
+	private final Random random;
+
+	/**
+	 * The pieces of every game of the corpus
+	 */
+	private final int[][] corpus;
+
+	/**
+	 * The pieces of every game of the corpus kept back to check the best weights
+	 */
+	private final int[][] validation;
+
+	/**
+	 * Plays the games, one thread per processor unless set
+	 */
+	private final ExecutorService pool;
+
+	/**
+	 * A solution writer per thread, throwing every move away. Reused by every
+	 * game the thread plays
+	 */
+	private final ThreadLocal<SolutionWriter> discard;
+
+	/**
+	 * The number of games played so far
+	 */
+	private long played = 0;
+
+	/**
+	 * The number of pieces placed so far
+	 */
+	private long placed = 0;
+
+	/**
+	 * Creates a tuner, generating its corpus
+	 * @param population the number of vectors in each generation, more than ELITE
+	 * @param games the number of games in the corpus, at least 1
+	 * @param pieces the number of pieces in each game, at least 1
+	 * @param seed the seed of the corpus and of every random choice
+	 * @param width the width of the board, from Board.MIN_WIDTH to Board.MAX_WIDTH
+	 * @param threads the number of games played at once, at least 1
+	 */
+	public WeightTuner(int population, int games, int pieces, long seed, int width, int threads) {
+		if (population <= ELITE || games < 1 || pieces < 1 || threads < 1)
+			throw new IllegalArgumentException("The tuner needs more than " + ELITE + " vectors, and a game, a piece and a thread");
+		if (width < Board.MIN_WIDTH || width > Board.MAX_WIDTH)
+			throw new IllegalArgumentException("Board width must be from " + Board.MIN_WIDTH + " to " + Board.MAX_WIDTH);
+		this.population = population;
+		this.games = games;
+		this.width = width;
+		this.random = new Random(seed);
+		this.corpus = corpus(games, pieces, seed);
+		this.validation = corpus(games, pieces, ~seed);
+		this.pool = Executors.newFixedThreadPool(threads);
+		this.discard = ThreadLocal.withInitial(() -> {
+			try {
+				return SolutionWriter.discard(width);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	/*************************************************************************
+	 *                          PUBLIC METHODS                               *
+	 *************************************************************************/
+
+	/**
+	 * Breeds generation after generation and returns the fittest weights found,
+	 * printing the progress of each generation
+	 * @param generations the number of generations to breed
+	 * @return the fittest weights
+	 * @throws InterruptedException if interrupted while the games are played
+	 */
+	public int[] tune(int generations) throws InterruptedException {
+		int[][] vectors = new int[population][];
+		vectors[0] = Evaluator.LEGACY_WEIGHTS.clone();
+		for (int i = 1; i < population; i++) {
+			vectors[i] = new int[Evaluator.FEATURES];
+			for (int f = 0; f < Evaluator.FEATURES; f++) {
+				vectors[i][f] = -random.nextInt(INITIAL_RANGE + 1);
+			}
+		}
+
+		int[] best = vectors[0];
+		double bestFitness = Double.MAX_VALUE;
+		for (int generation = 1; generation <= generations; generation++) {
+			long start = System.nanoTime();
+			long before = played;
+			double[] fitness = new double[population];
+			long[][] heights = play(vectors, corpus);
+			for (int i = 0; i < population; i++) {
+				fitness[i] = mean(heights[i]);
+			}
+			//rank the vectors fittest first, the earlier of equals first
+			Integer[] order = new Integer[population];
+			for (int i = 0; i < population; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> Double.compare(fitness[a], fitness[b]));
+			if (fitness[order[0]] < bestFitness) {
+				bestFitness = fitness[order[0]];
+				best = vectors[order[0]].clone();
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format("generation %d: best %.2f, mean %.2f, weights %s, %d games in %.1fs (%.0f games/s)",
+				generation, fitness[order[0]], mean(fitness), format(vectors[order[0]]),
+				played - before, seconds, (played - before) / seconds));
+
+			//the fittest carry over, and the rest are bred from tournament winners
+			int[][] bred = new int[population][];
+			for (int i = 0; i < ELITE; i++) {
+				bred[i] = vectors[order[i]];
+			}
+			for (int i = ELITE; i < population; i++) {
+				int[] mother = vectors[tournament(fitness)];
+				int[] father = vectors[tournament(fitness)];
+				bred[i] = new int[Evaluator.FEATURES];
+				for (int f = 0; f < Evaluator.FEATURES; f++) {
+					bred[i][f] = random.nextBoolean() ? mother[f] : father[f];
+					if (random.nextDouble() < MUTATION_RATE)
+						bred[i][f] += (int) Math.round(random.nextGaussian() * Math.max(4, Math.abs(bred[i][f]) / 4));
+				}
+			}
+			vectors = bred;
+		}
+		return best;
+	}
+
+	/**
+	 * Plays weights on the corpus kept back from tuning, against the legacy
+	 * weights, and prints how each did
+	 * @param weights the weights to check
+	 * @throws InterruptedException if interrupted while the games are played
+	 */
+	public void report(int[] weights) throws InterruptedException {
+		long[][] heights = play(new int[][] {weights, Evaluator.LEGACY_WEIGHTS}, validation);
+		String[] names = {"tuned", "legacy"};
+		System.out.println("fitness on " + games + " unseen games, final stack height:");
+		for (int i = 0; i < names.length; i++) {
+			long[] sorted = heights[i].clone();
+			Arrays.sort(sorted);
+			System.out.println(String.format("  %-6s mean %.2f, min %d, median %d, max %d",
+				names[i], mean(heights[i]), sorted[0], sorted[sorted.length / 2], sorted[sorted.length - 1]));
+		}
+	}
+
+	/**
+	 * Stops the threads playing the games
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/*************************************************************************
+	 *                       PRIVATE HELPER METHODS                          *
+	 *************************************************************************/
+
+	/**
+	 * Plays every game of a corpus with every weight vector, all at once across
+	 * the pool, each game with a solver of its own
+	 * @param vectors the weight vectors
+	 * @param games the pieces of each game
+	 * @return the final stack height of each game, by vector then game
+	 * @throws InterruptedException if interrupted while the games are played
+	 */
+	private long[][] play(int[][] vectors, int[][] games) throws InterruptedException {
+		long[][] heights = new long[vectors.length][games.length];
+		List<Future<?>> results = new ArrayList<Future<?>>(vectors.length * games.length);
+		for (int i = 0; i < vectors.length; i++) {
+			for (int g = 0; g < games.length; g++) {
+				int[] weights = vectors[i];
+				int[] pieces = games[g];
+				long[] into = heights[i];
+				int game = g;
+				results.add(pool.submit(() -> {
+					TetrisSolver solver = new TetrisSolver();
+					solver.setWidth(width);
+					solver.setWeights(weights);
+					try {
+						solver.stream(source(pieces), discard.get());
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					into[game] = solver.height();
+				}));
+			}
+		}
+		for (Future<?> result : results) {
+			try {
+				result.get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("A game failed", e.getCause());
+			}
+		}
+		for (int[] pieces : games) {
+			placed += (long) pieces.length * vectors.length;
+		}
+		played += results.size();
+		return heights;
+	}
+
+	/**
+	 * Runs a tournament between randomly drawn vectors
+	 * @param fitness the fitness of every vector
+	 * @return the index of the fittest vector drawn
+	 */
+	private int tournament(double[] fitness) {
+		int winner = random.nextInt(fitness.length);
+		for (int k = 1; k < TOURNAMENT; k++) {
+			int challenger = random.nextInt(fitness.length);
+			if (fitness[challenger] < fitness[winner])
+				winner = challenger;
+		}
+		return winner;
+	}
+
+	/**
+	 * Generates a corpus of seeded random games
+	 * @param games the number of games
+	 * @param pieces the number of pieces in each game
+	 * @param seed the seed
+	 * @return the pieces of each game
+	 */
+	private static int[][] corpus(int games, int pieces, long seed) {
+		RandomPieces source = new RandomPieces(seed, (long) games * pieces);
+		int[][] corpus = new int[games][pieces];
+		for (int[] game : corpus) {
+			for (int i = 0; i < pieces; i++) {
+				game[i] = source.nextPiece();
+			}
+		}
+		return corpus;
+	}
+
+	/**
+	 * Returns a piece source over the pieces of a game
+	 * @param pieces the pieces
+	 * @return the source
+	 */
+	private static PieceSource source(int[] pieces) {
+		return new PieceSource() {
+			private int next = 0;
+
+			@Override
+			public int nextPiece() {
+				return next < pieces.length ? pieces[next++] : -1;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	/**
+	 * Returns the mean of some values
+	 * @param values the values
+	 * @return the mean
+	 */
+	private static double mean(long[] values) {
+		double sum = 0;
+		for (long value : values) {
+			sum += value;
+		}
+		return sum / values.length;
+	}
+
+	/**
+	 * Returns the mean of some values
+	 * @param values the values
+	 * @return the mean
+	 */
+	private static double mean(double[] values) {
+		double sum = 0;
+		for (double value : values) {
+			sum += value;
+		}
+		return sum / values.length;
+	}
+
+	/**
+	 * Writes weights the way --weights takes them
+	 * @param weights the weights
+	 * @return the weights, comma separated
+	 */
+	private static String format(int[] weights) {
+		StringBuilder text = new StringBuilder();
+		for (int f = 0; f < weights.length; f++) {
+			text.append(f == 0 ? "" : ",").append(weights[f]);
+		}
+		return text.toString();
+	}
+
+	/*************************************************************************
+	 *                             MAIN METHOD                               *
+	 *************************************************************************/
+
+	public static void main(String args[]) throws InterruptedException {
+		int population = POPULATION;
+		int generations = GENERATIONS;
+		int games = GAMES;
+		int pieces = PIECES;
+		long seed = SEED;
+		int width = TetrisSolver.GRID_WIDTH;
+		int threads = Runtime.getRuntime().availableProcessors();
+		WeightTuner tuner;
+		try {
+			int a = 0;
+			for (; a + 1 < args.length; a += 2) {
+				String value = args[a+1];
+				if (args[a].equals("--population")) {
+					population = Integer.parseInt(value);
+				} else if (args[a].equals("--generations")) {
+					generations = Integer.parseInt(value);
+				} else if (args[a].equals("--games")) {
+					games = Integer.parseInt(value);
+				} else if (args[a].equals("--pieces")) {
+					pieces = Integer.parseInt(value);
+				} else if (args[a].equals("--seed")) {
+					seed = Long.parseLong(value);
+				} else if (args[a].equals("--width")) {
+					width = Integer.parseInt(value);
+				} else if (args[a].equals("--threads")) {
+					threads = Integer.parseInt(value);
+				} else {
+					break;
+				}
+			}
+			if (a != args.length || generations < 1)
+				throw new IllegalArgumentException("Unknown option");
+			tuner = new WeightTuner(population, games, pieces, seed, width, threads);
+		} catch (IllegalArgumentException e) {
+			System.out.println("Usage: java WeightTuner [--population n] [--generations n] [--games n]");
+			System.out.println("       [--pieces n] [--seed n] [--width columns] [--threads n]");
+			return;
+		}
+
+		long start = System.nanoTime();
+		int[] best;
+		try {
+			best = tuner.tune(generations);
+			tuner.report(best);
+		} finally {
+			tuner.shutdown();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%d games, %d pieces in %.1fs on %d threads (%.0f games/s, %.0f pieces/s)",
+			tuner.played, tuner.placed, seconds, threads, tuner.played / seconds, tuner.placed / seconds));
+		System.out.println("best weights: --weights " + format(best));
+	}
+}
@@ -0,0 +1,198 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * AI4211 Project
+ * Checks that choosing and playing moves allocates nothing once a game is
+ * under way, in every way of choosing them. Each game is played for
+ * WARMUP_MOVES, then the bytes allocated by every thread are read as the
+ * pieces are handed over, across the next CHECKED_MOVES, so setting the game
+ * up and warming the pool threads up is not counted.
+ *
+ * Two paths are exempt from zero, and checked to a bound instead:
+ * the default legacy weights stack the pieces up without end, and the compiler
+ * can still be recompiling the game late into it, materializing a few objects
+ * it had optimized away, so the game is held to a constant bound that does not
+ * grow with the stack; and scoring the pieces on hand in parallel forks a new
+ * CandidateTask tree every move, each leaf with its own copy of the board, so
+ * it allocates a bounded amount every move and keeps none of it
+ */
+class AllocationTest {
+
+	/**
+	 * The seed for every piece sequence, so runs are comparable
+	 */
+	private final static long SEED = 4211;
+
+	/**
+	 * The moves played before and while checking for allocation
+	 */
+	private final static int WARMUP_MOVES = 50000, CHECKED_MOVES = 100000;
+
+	/**
+	 * Weights that keep the stack low, so the board never has to grow while
+	 * allocation is checked
+	 */
+	private final static int[] LOW_WEIGHTS = {-51, 0, -18, -36, 0, 0, 0, 0};
+
+	/**
+	 * Reads the bytes allocated by each thread
+	 */
+	private final static com.sun.management.ThreadMXBean THREADS =
+		(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	@BeforeAll
+	static void enableCounting() {
+		assertTrue(THREADS.isThreadAllocatedMemorySupported(), "Allocation counting is not supported");
+		THREADS.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	/*************************************************************************
+	 *                                TESTS                                  *
+	 *************************************************************************/
+
+	@Test
+	void sequential() throws IOException {
+		TetrisSolver solver = new TetrisSolver();
+		solver.setWeights(LOW_WEIGHTS);
+		assertEquals(0, allocated(solver));
+	}
+
+	@Test
+	void buffer() throws IOException {
+		TetrisSolver solver = new TetrisSolver();
+		solver.setWeights(LOW_WEIGHTS);
+		solver.setBuffer(4);
+		assertEquals(0, allocated(solver));
+	}
+
+	@Test
+	void lookahead() throws IOException {
+		TetrisSolver solver = new TetrisSolver();
+		solver.setWeights(LOW_WEIGHTS);
+		solver.setLookahead(3, 8);
+		assertEquals(0, allocated(solver));
+	}
+
+	@Test
+	void parallelLookahead() throws IOException {
+		TetrisSolver solver = new TetrisSolver();
+		solver.setWeights(LOW_WEIGHTS);
+		solver.setLookahead(3, 8);
+		solver.setParallel(true);
+		assertEquals(0, allocated(solver));
+	}
+
+	@Test
+	void deadline() throws IOException {
+		TetrisSolver solver = new TetrisSolver();
+		solver.setWeights(LOW_WEIGHTS);
+		solver.setLookahead(3, 8);
+		solver.setDeadline(1000);
+		assertEquals(0, allocated(solver));
+	}
+
+	@Test
+	void table() throws IOException {
+		TetrisSolver solver = new TetrisSolver();
+		solver.setWeights(LOW_WEIGHTS);
+		solver.setTable(16);
+		assertEquals(0, allocated(solver));
+	}
+
+	@Test
+	void defaultWeights() throws IOException {
+		//the stack grows without end, but the sealed rows are spilled to a file
+		//past the first few thousand, so only a late recompile allocates
+		TetrisSolver solver = new TetrisSolver();
+		long allocated = allocated(solver);
+		long bound = 1024;
+		assertTrue(allocated <= bound, allocated + " bytes allocated, more than " + bound);
+	}
+
+	@Test
+	void parallelHand() throws IOException {
+		//a task tree and a board copy for each leaf every move, about 10KB, but nothing kept
+		TetrisSolver solver = new TetrisSolver();
+		solver.setWeights(LOW_WEIGHTS);
+		solver.setParallel(true);
+		long allocated = allocated(solver);
+		long bound = 12 * 1024L * CHECKED_MOVES;
+		assertTrue(allocated <= bound, allocated + " bytes allocated over " + CHECKED_MOVES + " moves, more than " + bound);
+	}
+
+	/*************************************************************************
+	 *                       PRIVATE HELPER METHODS                          *
+	 *************************************************************************/
+
+	/**
+	 * Plays a game and returns the bytes allocated by its threads while its
+	 * moves were checked. The threads are taken once the game is warmed up,
+	 * and reading their counters one by one allocates nothing
+	 * @param solver the solver, set up to play the game
+	 * @return the bytes allocated
+	 * @throws IOException never, the pieces and output are in memory
+	 */
+	private static long allocated(TetrisSolver solver) throws IOException {
+		PieceSource pieces = new RandomPieces(SEED, WARMUP_MOVES + CHECKED_MOVES + 10);
+		long[][] threads = new long[1][];
+		long[] bytes = new long[2];
+		PieceSource checked = new PieceSource() {
+			private int delivered = 0;
+
+			@Override
+			public int nextPiece() throws IOException {
+				if (delivered == WARMUP_MOVES) {
+					threads[0] = gameThreads();
+					bytes[0] = allocatedBy(threads[0]);
+				}
+				if (delivered == WARMUP_MOVES + CHECKED_MOVES)
+					bytes[1] = allocatedBy(threads[0]);
+				delivered++;
+				return pieces.nextPiece();
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		solver.stream(checked, SolutionWriter.discard(TetrisSolver.GRID_WIDTH));
+		return bytes[1] - bytes[0];
+	}
+
+	/**
+	 * Returns the threads that play the game: this one and the common pool's
+	 * workers, leaving out the test runner's own threads, which allocate as
+	 * they please
+	 * @return the ids of the threads
+	 */
+	private static long[] gameThreads() {
+		long current = Thread.currentThread().getId();
+		return Arrays.stream(THREADS.getThreadInfo(THREADS.getAllThreadIds()))
+			.filter(info -> info != null && (info.getThreadId() == current
+				|| info.getThreadName().startsWith("ForkJoinPool.commonPool")))
+			.mapToLong(ThreadInfo::getThreadId)
+			.toArray();
+	}
+
+	/**
+	 * Adds up the bytes allocated by some threads so far
+	 * @param threads the ids of the threads, any that have ended counting 0
+	 * @return the bytes allocated
+	 */
+	private static long allocatedBy(long[] threads) {
+		long bytes = 0;
+		for (long thread : threads) {
+			bytes += Math.max(THREADS.getThreadAllocatedBytes(thread), 0);
+		}
+		return bytes;
+	}
+}
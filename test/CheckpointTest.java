@@ -0,0 +1,148 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * AI4211 Project
+ * Checks that a streamed game cut short and resumed from its last snapshot
+ * writes exactly the solution of the same game played without a break. Each
+ * game is played from seeded random pieces, held up partway so a snapshot falls
+ * due, then cut short a while later as if killed. A fresh solver resumes it
+ * from the snapshot file, and the solution is compared byte for byte against a
+ * game played straight through
+ */
+class CheckpointTest {
+
+	/**
+	 * The seed for every piece sequence
+	 */
+	private final static long SEED = 4211;
+
+	/**
+	 * Weights that keep the stack low, as in AllocationTest
+	 */
+	private final static int[] LOW_WEIGHTS = {-51, 0, -18, -36, 0, 0, 0, 0};
+
+	/**
+	 * How long the pieces are held up for, past the second between snapshots
+	 */
+	private final static long PAUSE_MILLIS = 1100;
+
+	@TempDir
+	Path dir;
+
+	/*************************************************************************
+	 *                                TESTS                                  *
+	 *************************************************************************/
+
+	@Test
+	void lookahead() throws IOException {
+		resumesExactly(6000, 3000, 4500, false, solver -> {
+			solver.setWeights(LOW_WEIGHTS);
+			solver.setLookahead(3, 4);
+		});
+	}
+
+	@Test
+	void defaultWeights() throws IOException {
+		//the stack grows without end, so by the snapshot rows have been spilled
+		resumesExactly(80000, 60000, 70000, true, solver -> { });
+	}
+
+	/*************************************************************************
+	 *                       PRIVATE HELPER METHODS                          *
+	 *************************************************************************/
+
+	/**
+	 * Plays a game cut short and resumed, and a game played straight through,
+	 * and checks their solutions are the same
+	 * @param pieces the number of pieces in the game
+	 * @param pause the number of pieces delivered before they are held up
+	 * @param crash the number of pieces delivered before the game is cut short
+	 * @param spilled whether the snapshot must have sealed rows spilled to a file
+	 * @param settings sets up each solver the same way
+	 * @throws IOException if a file cannot be written or read
+	 */
+	private void resumesExactly(int pieces, int pause, int crash, boolean spilled, Consumer<TetrisSolver> settings)
+			throws IOException {
+		Path checkpoint = dir.resolve("game.ckpt");
+		Path resumed = dir.resolve("resumed.txt");
+		Path straight = dir.resolve("straight.txt");
+
+		//play until cut short, taking a snapshot once the pieces are held up
+		TetrisSolver first = new TetrisSolver();
+		settings.accept(first);
+		first.setCheckpoint(checkpoint.toString(), 1);
+		try (PieceSource source = cutShort(new RandomPieces(SEED, pieces), pause, crash);
+				SolutionWriter writer = SolutionWriter.open(resumed.toString(), false, TetrisSolver.GRID_WIDTH)) {
+			assertThrows(InterruptedIOException.class, () -> first.stream(source, writer));
+		}
+
+		//carry on from the snapshot with a fresh solver, as --resume does
+		Checkpoint from = Checkpoint.load(checkpoint);
+		assertTrue(from.inputOffset >= pause && from.inputOffset <= crash, "snapshot taken at piece " + from.inputOffset);
+		if (spilled)
+			assertTrue(from.board.buried.size() > SealedRows.TAIL_ROWS, "no sealed rows were spilled by the snapshot");
+		TetrisSolver second = new TetrisSolver();
+		settings.accept(second);
+		second.setCheckpoint(checkpoint.toString(), 1);
+		try (PieceSource source = new RandomPieces(SEED, pieces);
+				SolutionWriter writer = SolutionWriter.append(resumed.toString(), false, TetrisSolver.GRID_WIDTH,
+					from.outputOffset)) {
+			second.resume(from, source, writer);
+		}
+
+		//and play the same game without a break
+		TetrisSolver third = new TetrisSolver();
+		settings.accept(third);
+		try (PieceSource source = new RandomPieces(SEED, pieces);
+				SolutionWriter writer = SolutionWriter.open(straight.toString(), false, TetrisSolver.GRID_WIDTH)) {
+			third.stream(source, writer);
+		}
+
+		assertEquals(-1L, Files.mismatch(straight, resumed), "the resumed solution differs");
+	}
+
+	/**
+	 * Wraps pieces so they are held up once, then end in an error as if the
+	 * game were killed
+	 * @param pieces the pieces
+	 * @param pause the number of pieces delivered before they are held up
+	 * @param crash the number of pieces delivered before the error
+	 * @return the pieces, held up and cut short
+	 */
+	private static PieceSource cutShort(PieceSource pieces, int pause, int crash) {
+		return new PieceSource() {
+			private int delivered = 0;
+
+			@Override
+			public int nextPiece() throws IOException {
+				if (delivered == pause) {
+					try {
+						Thread.sleep(PAUSE_MILLIS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				if (delivered == crash)
+					throw new InterruptedIOException("cut short");
+				delivered++;
+				return pieces.nextPiece();
+			}
+
+			@Override
+			public void close() throws IOException {
+				pieces.close();
+			}
+		};
+	}
+}
@@ -0,0 +1,75 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * AI4211 Project
+ * Checks that the verifier plays a position past the right wall against it,
+ * as the solver does, rather than rejecting the move
+ */
+class SolutionVerifierTest {
+
+	/**
+	 * The width of the board the solutions are played on
+	 */
+	private final static int WIDTH = 10;
+
+	@TempDir
+	Path dir;
+
+	/*************************************************************************
+	 *                                TESTS                                  *
+	 *************************************************************************/
+
+	@Test
+	void positionPastTheRightWall() throws IOException {
+		int iden = 1;
+		int[] shape = Pieces.MASKS[iden][0];
+		int shapeWidth = 0;
+		for (int row : shape) {
+			shapeWidth = Math.max(shapeWidth, 32 - Integer.numberOfLeadingZeros(row));
+		}
+		int against = WIDTH - shapeWidth;
+
+		SolutionVerifier past = verify(iden, iden + " 0 0\n" + iden + " 0 " + WIDTH + "\n" + iden + " 0 255\n");
+		SolutionVerifier wall = verify(iden, iden + " 0 0\n" + iden + " 0 " + against + "\n" + iden + " 0 " + against + "\n");
+		assertTrue(past.passed(), past.report());
+		assertTrue(wall.passed(), wall.report());
+		assertEquals(result(wall), result(past));
+	}
+
+	/*************************************************************************
+	 *                       PRIVATE HELPER METHODS                          *
+	 *************************************************************************/
+
+	/**
+	 * Verifies a text solution that plays three of one piece, without a buffer
+	 * @param iden the piece
+	 * @param moves the moves, one to a line
+	 * @return the verifier, holding the results
+	 * @throws IOException if the files cannot be written
+	 */
+	private SolutionVerifier verify(int iden, String moves) throws IOException {
+		Path input = Files.createTempFile(dir, "input", ".txt");
+		Path solution = Files.createTempFile(dir, "solution", ".txt");
+		Files.writeString(input, iden + "\n" + iden + "\n" + iden + "\n");
+		Files.writeString(solution, moves);
+		return new SolutionVerifier(input, solution, WIDTH, 0).verify();
+	}
+
+	/**
+	 * Returns the results of a report, without the files it names
+	 * @param verifier the verifier
+	 * @return the report after the file names
+	 */
+	private static String result(SolutionVerifier verifier) {
+		String report = verifier.report();
+		return report.substring(report.indexOf(": ") + 2);
+	}
+}